@@ -83,6 +83,31 @@ public class Options {
      */
     public static final String CHAIN_PATH = "chain_path";
 
+	/**
+	 * (Integer, optional) Number of threads that process the files of each
+	 * chain. The default value is 1 (sequential execution)
+	 */
+	public static final String PARALLELISM = "parallelism";
+
+	/**
+	 * (Boolean) Only processes the files that are new or have changed since
+	 * the previous execution. The state of the processed files is kept under
+	 * the execution directory. The default value is false
+	 */
+	public static final String INCREMENTAL = "incremental";
+
+	/**
+	 * (Integer, optional) Shard of the files processed by this execution, from
+	 * 1 to {@link #SHARD_COUNT}. The default value is 1
+	 */
+	public static final String SHARD_INDEX = "shard_index";
+
+	/**
+	 * (Integer, optional) Number of shards in which the files are split
+	 * between several executions. The default value is 1 (no sharding)
+	 */
+	public static final String SHARD_COUNT = "shard_count";
+
 	/**
 	 * Stored options as immutable map.
 	 */
@@ -150,6 +175,29 @@ public class Options {
 	    return null;
 	}
 
+	public int getParallelism() {
+		Object value = this.options.get(PARALLELISM);
+		if (value != null) {
+			return (Integer) value;
+		}
+		return 1;
+	}
+
+	public int getShardIndex() {
+		Object value = this.options.get(SHARD_INDEX);
+		return value != null ? (Integer) value : 1;
+	}
+
+	public int getShardCount() {
+		Object value = this.options.get(SHARD_COUNT);
+		return value != null ? (Integer) value : 1;
+	}
+
+	public boolean isIncremental() {
+		Object value = this.options.get(INCREMENTAL);
+		return value != null && (Boolean) value;
+	}
+
 	public boolean isVerbose() {
 		Object value = this.options.get(VERBOSE);
 		return value != null && (Boolean) value;
@@ -164,6 +164,81 @@ public class OptionsBuilder {
 		return this;
     }
 
+	/**
+	 * Sets the parallelism option
+	 *
+	 * @param parallelism
+	 *            number of threads that process the files of each chain
+	 * @return updated OptionBuilder instance
+	 *
+	 * @see Options#PARALLELISM
+	 */
+	public OptionsBuilder parallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("The parallelism must be greater than 0");
+		}
+		options.put(Options.PARALLELISM, parallelism);
+		return this;
+	}
+
+	/**
+	 * Sets the shard options
+	 *
+	 * @param index
+	 *            shard processed by this execution, from 1 to count
+	 * @param count
+	 *            number of shards
+	 * @return updated OptionBuilder instance
+	 *
+	 * @see Options#SHARD_INDEX
+	 * @see Options#SHARD_COUNT
+	 */
+	public OptionsBuilder shard(int index, int count) {
+		if (count < 1 || index < 1 || index > count) {
+			throw new IllegalArgumentException("The shard must be i/n, where 1 <= i <= n");
+		}
+		options.put(Options.SHARD_INDEX, index);
+		options.put(Options.SHARD_COUNT, count);
+		return this;
+	}
+
+	/**
+	 * Sets the shard options
+	 *
+	 * @param shard
+	 *            shard with the i/n format (e.g. 2/4)
+	 * @return updated OptionBuilder instance
+	 *
+	 * @see #shard(int, int)
+	 */
+	public OptionsBuilder shard(String shard) {
+		int pos = shard != null ? shard.indexOf('/') : -1;
+		if (pos == -1) {
+			throw new IllegalArgumentException("The shard must be i/n, where 1 <= i <= n");
+		}
+		try {
+			return shard(Integer.parseInt(shard.substring(0, pos).trim()),
+					Integer.parseInt(shard.substring(pos + 1).trim()));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("The shard must be i/n, where 1 <= i <= n");
+		}
+	}
+
+	/**
+	 * Sets the incremental option
+	 *
+	 * @param incremental
+	 *            true to skip the files that have not changed since the
+	 *            previous execution
+	 * @return updated OptionBuilder instance
+	 *
+	 * @see Options#INCREMENTAL
+	 */
+	public OptionsBuilder incremental(boolean incremental) {
+		options.put(Options.INCREMENTAL, incremental);
+		return this;
+	}
+
 	/**
 	 * Sets the printErrors option
 	 *
@@ -28,6 +28,7 @@ import org.walkmod.commands.AddModuleCommand;
 import org.walkmod.commands.AddPluginCommand;
 import org.walkmod.commands.AddTransformationCommand;
 import org.walkmod.commands.ApplyCommand;
+import org.walkmod.commands.ApplyPatchCommand;
 import org.walkmod.commands.AsciiTableAware;
 import org.walkmod.commands.CheckCommand;
 import org.walkmod.commands.Command;
@@ -51,6 +52,7 @@ import org.walkmod.commands.RemoveTransformationCommand;
 import org.walkmod.commands.SetReaderCommand;
 import org.walkmod.commands.SetWriterCommand;
 import org.walkmod.commands.VersionCommand;
+import org.walkmod.commands.WatchCommand;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
@@ -118,6 +120,7 @@ public class WalkModDispatcher {
 		commands.put("add-plugin", new AddPluginCommand(jcommander));
 		commands.put("add-provider", new AddCfgProviderCommand(jcommander));
 		commands.put("apply", new ApplyCommand(jcommander));
+		commands.put("apply-patch", new ApplyPatchCommand(jcommander));
 		commands.put("chains", new PrintChainsCommand(jcommander));
 		commands.put("check", new CheckCommand(jcommander));
 		commands.put("init", new InitCommand(jcommander));
@@ -137,6 +140,7 @@ public class WalkModDispatcher {
 		commands.put("set-writer", new SetWriterCommand(jcommander));
 		commands.put("transformations", new PrintTransformationsCommand(jcommander));
 		commands.put("plugins", new PrintPluginsCommand(jcommander));
+		commands.put("watch", new WatchCommand(jcommander));
 		commands.put("--version", new VersionCommand());
 		commands.put("--help", new HelpCommand(jcommander));
 
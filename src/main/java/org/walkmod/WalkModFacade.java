@@ -15,17 +15,26 @@
  along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
 package org.walkmod;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.text.DateFormat;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 import org.walkmod.conf.ConfigurationManager;
@@ -37,6 +46,7 @@ import org.walkmod.conf.entities.ChainConfig;
 import org.walkmod.conf.entities.Configuration;
 import org.walkmod.conf.entities.PluginConfig;
 import org.walkmod.conf.entities.ProviderConfig;
+import org.walkmod.conf.entities.ReaderConfig;
 import org.walkmod.conf.entities.TransformationConfig;
 import org.walkmod.conf.entities.impl.ConfigurationImpl;
 import org.walkmod.conf.providers.DynamicConfigurationProvider;
@@ -45,6 +55,8 @@ import org.walkmod.conf.providers.ExecutionModeProvider;
 import org.walkmod.conf.providers.IvyConfigurationProvider;
 import org.walkmod.exceptions.InvalidConfigurationException;
 import org.walkmod.exceptions.WalkModException;
+import org.walkmod.patches.PatchApplier;
+import org.walkmod.util.FileWatcher;
 import org.walkmod.writers.Summary;
 
 /**
@@ -59,6 +71,14 @@ public class WalkModFacade {
 
     private static final String DEFAULT_WALKMOD_FILE_NAME = "walkmod";
 
+    /**
+     * Milliseconds without new changes before a watch executes the chains, since editors and builds usually write
+     * several files at once.
+     */
+    private static final long WATCH_DEBOUNCE = 100;
+
+    private static final String SELECTED_FILES_PARAM = "selectedFiles";
+
     private final Options options;
 
     private String userDir = ".";
@@ -263,6 +283,202 @@ public class WalkModFacade {
         return result;
     }
 
+    /**
+     * Applies a patch file generated by walkmod (raw, json or ndjson formats). The hunks of each file are applied
+     * together and the files are patched in parallel. The files with conflicts are not modified.
+     * 
+     * @param patchFile
+     *            the patch file. If it is relative, it is resolved against the execution directory.
+     * @param threads
+     *            number of files patched at the same time.
+     * @param encoding
+     *            encoding of the patch and the patched files.
+     * @return The list of patched files.
+     * @throws IOException
+     *             if the patch file cannot be read or is invalid.
+     * @throws InterruptedException
+     *             if the thread is interrupted while the files are patched.
+     */
+    public List<File> applyPatch(File patchFile, int threads, String encoding) throws IOException,
+            InterruptedException {
+        File executionDir = options.getExecutionDirectory().getAbsoluteFile();
+        if (!patchFile.isAbsolute()) {
+            patchFile = new File(executionDir, patchFile.getPath());
+        }
+        long startTime = System.currentTimeMillis();
+        PatchApplier applier = new PatchApplier(executionDir, encoding);
+        applier.read(patchFile);
+        applier.apply(threads);
+        List<File> result = new LinkedList<File>(applier.getPatchedFiles());
+        for (Map.Entry<File, String> conflict : applier.getConflicts().entrySet()) {
+            log.error("Conflict in " + conflict.getKey().getPath() + ": " + conflict.getValue());
+        }
+        if (options.isVerbose()) {
+            DecimalFormat myFormatter = new DecimalFormat("###.###");
+            log.info(result.size() + " of " + applier.getNumFiles() + " files patched in "
+                    + myFormatter.format((System.currentTimeMillis() - startTime) / 1000.0) + " seconds");
+        }
+        return result;
+    }
+
+    /**
+     * Applies a list of transformation chains every time that the files of their readers change. The configuration
+     * and plugins are loaded once, and each execution is incremental and reads only the changed files. It runs until
+     * the thread is interrupted.
+     * 
+     * @param interval
+     *            milliseconds between two checks of the reader directories.
+     * @param chains
+     *            the list of applied transformation chains.
+     * @throws InvalidConfigurationException
+     *             if the walkmod configuration is invalid and it is working in no verbose mode.
+     */
+    public void watch(long interval, String... chains) throws InvalidConfigurationException {
+        userDir = new File(System.getProperty("user.dir")).getAbsolutePath();
+        System.setProperty("user.dir", options.getExecutionDirectory().getAbsolutePath());
+        try {
+            Configuration config = null;
+            if (cfg.exists()) {
+                config = readConfig(locateConfigurationProvider(), new ExecutionModeProvider(ExecutionModeEnum.APPLY));
+            } else {
+                config = createConfig(chains, locateConfigurationProvider(),
+                        new ExecutionModeProvider(ExecutionModeEnum.APPLY));
+            }
+            if (config == null) {
+                return;
+            }
+            if (config.getModules() != null && !config.getModules().isEmpty()) {
+                log.warn("The modules are not watched. Execute walkmod watch in each module directory");
+            }
+            Options watchOptions = OptionsBuilder.options(options).incremental(true).build();
+            Collection<ChainConfig> watched = getWatchedChains(config, chains);
+            FileWatcher watcher = new FileWatcher(getReaderDirectories(watched));
+            if (options.isVerbose()) {
+                log.info("Watching " + watcher.getRoots() + ". Press Ctrl+C to finish");
+            }
+            watcher.scan();
+            executeWatched(config, watchOptions, chains);
+            // the changes made while the chains run are pending, except the files written by walkmod
+            Set<File> pending = getExternalChanges(watcher.scan());
+            while (!Thread.currentThread().isInterrupted()) {
+                if (pending.isEmpty()) {
+                    Thread.sleep(interval);
+                    pending.addAll(watcher.scan());
+                }
+                if (!pending.isEmpty()) {
+                    Set<File> changes = pending;
+                    Set<File> debounced = changes;
+                    while (!debounced.isEmpty()) {
+                        Thread.sleep(WATCH_DEBOUNCE);
+                        debounced = watcher.scan();
+                        changes.addAll(debounced);
+                    }
+                    if (options.isVerbose()) {
+                        log.info(changes.size() + " changed files");
+                    }
+                    // the last scan is the snapshot of the files before the execution
+                    setSelectedFiles(watched, changes);
+                    try {
+                        executeWatched(config, watchOptions, chains);
+                    } finally {
+                        setSelectedFiles(watched, null);
+                    }
+                    pending = getExternalChanges(watcher.scan());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            System.setProperty("user.dir", userDir);
+        }
+    }
+
+    private void executeWatched(Configuration config, Options watchOptions, String... chains) {
+        try {
+            config.execute(userDir, watchOptions, chains);
+        } catch (RuntimeException e) {
+            // the errors of an execution must not finish the watch
+            log.error("The execution has failed", e);
+        }
+    }
+
+    /**
+     * Removes from the changes detected after an execution the files that it has written, so that the rest (e.g. the
+     * files saved by the user meanwhile) are processed by the next one.
+     */
+    private Set<File> getExternalChanges(Set<File> changes) {
+        Set<String> written = new HashSet<String>();
+        for (File file : Summary.getInstance().getWrittenFiles()) {
+            written.add(getCanonicalPath(file));
+        }
+        Set<File> result = new LinkedHashSet<File>();
+        for (File file : changes) {
+            if (!written.contains(getCanonicalPath(file))) {
+                result.add(file);
+            }
+        }
+        return result;
+    }
+
+    private static String getCanonicalPath(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    private Collection<ChainConfig> getWatchedChains(Configuration config, String... chains) {
+        List<ChainConfig> result = new LinkedList<ChainConfig>();
+        Collection<ChainConfig> chainCfgs = config.getChainConfigs();
+        if (chainCfgs != null) {
+            List<String> names = chains != null ? Arrays.asList(chains) : null;
+            for (ChainConfig cc : chainCfgs) {
+                if ((names == null || names.isEmpty() || names.contains(cc.getName())) && cc.getReaderConfig() != null) {
+                    result.add(cc);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Restricts the readers of the watched chains to the changed files, in the same way as the git reader does with
+     * the files of the diff. The readers that do not support it ignore the parameter.
+     */
+    private void setSelectedFiles(Collection<ChainConfig> watched, Collection<File> files) {
+        for (ChainConfig cc : watched) {
+            ReaderConfig rc = cc.getReaderConfig();
+            Map<String, Object> params = rc.getParameters();
+            if (files != null) {
+                if (params == null) {
+                    params = new HashMap<String, Object>();
+                    rc.setParameters(params);
+                }
+                params.put(SELECTED_FILES_PARAM, new LinkedList<File>(files));
+            } else if (params != null) {
+                params.remove(SELECTED_FILES_PARAM);
+            }
+        }
+    }
+
+    private Collection<File> getReaderDirectories(Collection<ChainConfig> watched) {
+        Set<File> result = new LinkedHashSet<File>();
+        for (ChainConfig cc : watched) {
+            if (cc.getReaderConfig().getPath() != null) {
+                File dir = new File(cc.getReaderConfig().getPath());
+                if (!dir.isAbsolute()) {
+                    dir = new File(options.getExecutionDirectory(), dir.getPath());
+                }
+                result.add(dir);
+            }
+        }
+        if (result.isEmpty()) {
+            result.add(options.getExecutionDirectory());
+        }
+        return result;
+    }
+
     private void run(List<File> result, WalkmodCommand command, ExecutionModeEnum execMode, String... chains)
             throws InvalidConfigurationException {
 
@@ -304,10 +520,35 @@ public class WalkModFacade {
 
         config.execute(userDir, options, chains);
         result.addAll(Summary.getInstance().getWrittenFiles());
+        if (options.getShardCount() > 1) {
+            writeShardSummary(Summary.getInstance().getWrittenFiles());
+        }
         System.setProperty("user.dir", userDir);
 
     }
 
+    /**
+     * Writes the affected files of a shard execution, one per line, so that
+     * the summaries of all the shards can be concatenated.
+     */
+    private void writeShardSummary(Collection<File> files) {
+        File summary = new File(options.getExecutionDirectory(), "walkmod.shard-" + options.getShardIndex() + "-of-"
+                + options.getShardCount() + ".summary");
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(summary), "UTF-8"));
+            try {
+                for (File file : files) {
+                    writer.write(file.getPath());
+                    writer.write('\n');
+                }
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            log.error("The summary " + summary.getAbsolutePath() + " cannot be written", e);
+        }
+    }
+
     /**
      * Applies a list of transformation chains without updating the source files.
      * 
@@ -49,6 +49,15 @@ public class AbstractChainCommand {
     @Parameter(names = { "-p", "--path" }, description = "Overrides the reader and writer paths of the selected chains")
     private String path = null;
 
+    @Parameter(names = "--parallelism", description = "Number of threads that process the files of each chain")
+    private Integer parallelism = null;
+
+    @Parameter(names = "--incremental", description = "Only processes the files that have changed since the previous execution")
+    private boolean incremental = false;
+
+    @Parameter(names = "--shard", description = "Only processes the shard i/n of the files (e.g. 2/4)")
+    private String shard = null;
+
     @DynamicParameter(names = "-D", description = "Dynamic parameters")
     private Map<String, String> dynamicParams = new HashMap<String, String>();
 
@@ -115,14 +124,46 @@ public class AbstractChainCommand {
         this.path = path;
     }
 
+    public Integer getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(Integer parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    public String getShard() {
+        return shard;
+    }
+
+    public void setShard(String shard) {
+        this.shard = shard;
+    }
+
     public OptionsBuilder buildOptions() {
-        return OptionsBuilder.options().verbose(true).offline(offline)
+        OptionsBuilder builder = OptionsBuilder.options().verbose(true).offline(offline)
                 .printErrors(showException != null && showException)
                 .includes(includes)
                 .excludes(excludes)
                 .dynamicArgs(dynamicParams)
                 .path(path)
+                .incremental(incremental)
                 .configurationFile(configurationFile);
+        if (parallelism != null) {
+            builder.parallelism(parallelism);
+        }
+        if (shard != null) {
+            builder.shard(shard);
+        }
+        return builder;
     }
 
 }
@@ -0,0 +1,66 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+  Walkmod is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+ 
+  Walkmod is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+ 
+  You should have received a copy of the GNU Lesser General Public License
+  along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.commands;
+
+import java.io.File;
+import java.util.List;
+
+import org.walkmod.OptionsBuilder;
+import org.walkmod.WalkModFacade;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+
+@Parameters(separators = "=", commandDescription = "Applies a patch file generated by walkmod (raw, json or ndjson formats, optionally gzip or zip compressed).")
+public class ApplyPatchCommand implements Command {
+
+	@Parameter(description = "The patch file. By default, walkmod.patch")
+	private List<String> parameters;
+
+	@Parameter(names = "--help", help = true, hidden = true)
+	private boolean help;
+
+	@Parameter(names = "--threads", description = "Number of files patched at the same time")
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	@Parameter(names = "--encoding", description = "Encoding of the patch and the patched files")
+	private String encoding = "UTF-8";
+
+	@Parameter(names = { "-e", "--verbose" }, description = "Prints the stacktrace of the produced error during the execution")
+	private Boolean showException = false;
+
+	private JCommander command;
+
+	public ApplyPatchCommand(JCommander command) {
+		this.command = command;
+	}
+
+	@Override
+	public void execute() throws Exception {
+		if (help) {
+			command.usage("apply-patch");
+		} else {
+			String patchFile = "walkmod.patch";
+			if (parameters != null && !parameters.isEmpty()) {
+				patchFile = parameters.get(0);
+			}
+			WalkModFacade facade = new WalkModFacade(OptionsBuilder.options().printErrors(showException));
+			facade.applyPatch(new File(patchFile), threads, encoding);
+		}
+	}
+
+}
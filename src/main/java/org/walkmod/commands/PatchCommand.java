@@ -19,6 +19,7 @@ import java.util.Map;
 
 import org.walkmod.WalkModFacade;
 import org.walkmod.patches.PatchFormat;
+import org.walkmod.writers.AbstractPatchWriter;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
@@ -35,9 +36,12 @@ public class PatchCommand extends AbstractChainCommand implements Command {
     @Parameter(names = { "-o", "--occurrence" }, description = "Produces a patch per change occurrence")
     private boolean patchPerChange = false;
 
-    @Parameter(names = { "-s", "--style" }, description = "Patch style (json or raw)")
+    @Parameter(names = { "-s", "--style" }, description = "Patch style (json, ndjson or raw)")
     private String patchFormat = PatchFormat.RAW.name();
 
+    @Parameter(names = { "-c", "--compression" }, description = "Compression of the patch file (none, gzip or zip)")
+    private String patchCompression = AbstractPatchWriter.NO_COMPRESSION;
+
     public PatchCommand(JCommander command) {
         this.command = command;
     }
@@ -52,6 +56,7 @@ public class PatchCommand extends AbstractChainCommand implements Command {
             dynParams.put("patchPerFile", Boolean.toString(patchPerFile));
             dynParams.put("patchPerChange", Boolean.toString(patchPerChange));
             dynParams.put("patchFormat", patchFormat);
+            dynParams.put("patchCompression", patchCompression);
 
             WalkModFacade facade = new WalkModFacade(buildOptions());
             String[] params = new String[getParameters().size()];
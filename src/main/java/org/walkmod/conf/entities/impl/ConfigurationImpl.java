@@ -23,6 +23,7 @@ import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -30,6 +31,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.TreeMap;
 
 import org.apache.log4j.Logger;
 import org.springframework.beans.BeanUtils;
@@ -57,11 +59,17 @@ import org.walkmod.conf.entities.MergePolicyConfig;
 import org.walkmod.conf.entities.PluginConfig;
 import org.walkmod.conf.entities.PropertyDefinition;
 import org.walkmod.conf.entities.ProviderConfig;
+import org.walkmod.conf.entities.ReaderConfig;
 import org.walkmod.conf.entities.TransformationConfig;
+import org.walkmod.conf.entities.WalkerConfig;
+import org.walkmod.conf.entities.WriterConfig;
 import org.walkmod.exceptions.WalkModException;
 import org.walkmod.impl.DefaultChainAdapterFactory;
+import org.walkmod.impl.DefaultChainWalkerAdapter;
 import org.walkmod.merger.MergeEngine;
 import org.walkmod.merger.MergePolicy;
+import org.walkmod.util.FileManifest;
+import org.walkmod.walkers.ParseCache;
 import org.walkmod.walkers.VisitorMessage;
 import org.walkmod.writers.Summary;
 
@@ -95,6 +103,12 @@ public class ConfigurationImpl implements Configuration {
 
     public static Logger log = Logger.getLogger(ConfigurationImpl.class);
 
+    private static final String SHARD_INDEX_PARAM = "shardIndex";
+
+    private static final String SHARD_COUNT_PARAM = "shardCount";
+
+    private static final String PATCH_FILE_PARAM = "patchFile";
+
     public ConfigurationImpl() {
         this.parameters = new LinkedHashMap<String, Object>();
         this.chainConfigs = new LinkedHashMap<String, ChainConfig>();
@@ -562,6 +576,17 @@ public class ConfigurationImpl implements Configuration {
 
     public void executeAllChains(Options options, ChainAdapterFactory apf) {
         Collection<ChainConfig> tcgfs = getChainConfigs();
+        // the chains that enable the shared parse cache reuse the parsed files
+        ParseCache.getInstance().setEnabled(tcgfs != null && tcgfs.size() > 1);
+        try {
+            runAllChains(options, apf);
+        } finally {
+            ParseCache.getInstance().setEnabled(false);
+        }
+    }
+
+    private void runAllChains(Options options, ChainAdapterFactory apf) {
+        Collection<ChainConfig> tcgfs = getChainConfigs();
 
         if (tcgfs != null) {
             if (options.isVerbose()) {
@@ -601,6 +626,9 @@ public class ConfigurationImpl implements Configuration {
                         String[] excludes = options.getExcludes().toArray(new String[options.getExcludes().size()]);
                         tcfg.getReaderConfig().setExcludes(excludes);
                     }
+                    setShard(options, tcfg);
+                    setIncremental(options, tcfg);
+                    setParallelism(options, tcfg);
 
                     ChainAdapter ap = apf.createChainProxy(this, tcfg.getName());
 
@@ -686,12 +714,143 @@ public class ConfigurationImpl implements Configuration {
                 log.info("Final memory: " + (Runtime.getRuntime().freeMemory()) / 1048576 + " M/ "
                         + (Runtime.getRuntime().totalMemory() / 1048576) + " M");
                 log.info("Total modified files: " + num);
+                logUnchangedFiles();
                 System.out.print("----------------------------------------");
                 System.out.println("----------------------------------------");
             }
         }
     }
 
+    private void logUnchangedFiles() {
+        int unchanged = Summary.getInstance().getUnchangedFiles().size();
+        if (unchanged > 0) {
+            log.info("Total unchanged files (not rewritten): " + unchanged);
+        }
+    }
+
+    private void setParallelism(Options options, ChainConfig cc) {
+        if (options.getParallelism() > 1 && cc.getWalkerConfig() != null) {
+            WalkerConfig wc = cc.getWalkerConfig();
+            Map<String, Object> params = wc.getParams();
+            if (params == null) {
+                params = new HashMap<String, Object>();
+                wc.setParams(params);
+            }
+            params.put(DefaultChainWalkerAdapter.PARALLELISM_PARAM, options.getParallelism());
+        }
+    }
+
+    private void setIncremental(Options options, ChainConfig cc) {
+        ReaderConfig rc = cc.getReaderConfig();
+        if (options.isIncremental() && rc != null) {
+            Map<String, Object> params = rc.getParameters();
+            if (params == null) {
+                params = new HashMap<String, Object>();
+                rc.setParameters(params);
+            }
+            if (!params.containsKey("manifestFile")) {
+                String hash = FileManifest.hash(getFingerprint(cc));
+                String name = cc.getName() != null ? cc.getName().replaceAll("[^\\w\\-.]", "_") : "default";
+                if (options.getShardCount() > 1) {
+                    name = name + "." + getShardSuffix(options);
+                }
+                File manifest = new File(options.getExecutionDirectory(), ".walkmod" + File.separator + "manifests"
+                        + File.separator + name + ".manifest");
+                params.put("manifestFile", manifest.getAbsolutePath());
+                params.put("configurationHash", hash);
+            }
+        }
+    }
+
+    private String getShardSuffix(Options options) {
+        return "shard-" + options.getShardIndex() + "-of-" + options.getShardCount();
+    }
+
+    /**
+     * Restricts the chain reader to the selected shard of files, and writes
+     * the patch of the shard in its own file.
+     */
+    private void setShard(Options options, ChainConfig cc) {
+        if (options.getShardCount() > 1) {
+            ReaderConfig rc = cc.getReaderConfig();
+            if (rc != null) {
+                Map<String, Object> params = rc.getParameters();
+                if (params == null) {
+                    params = new HashMap<String, Object>();
+                    rc.setParameters(params);
+                }
+                params.put(SHARD_INDEX_PARAM, options.getShardIndex());
+                params.put(SHARD_COUNT_PARAM, options.getShardCount());
+            }
+            WriterConfig wc = cc.getWriterConfig();
+            if (wc != null) {
+                Map<String, Object> params = wc.getParams();
+                if (params == null) {
+                    params = new HashMap<String, Object>();
+                    wc.setParams(params);
+                }
+                if (!params.containsKey(PATCH_FILE_PARAM)) {
+                    params.put(PATCH_FILE_PARAM, "walkmod." + getShardSuffix(options) + ".patch");
+                }
+            }
+        }
+    }
+
+    /**
+     * Textual description of the chain elements that decide the result of a
+     * transformation: reader, walker, parser, transformations and plugin
+     * versions. The reader includes, excludes and selected files are not part
+     * of it because they only select the files, and the writer is not either, so that the
+     * check and apply executions share the state.
+     */
+    private String getFingerprint(ChainConfig cc) {
+        StringBuilder sb = new StringBuilder();
+        ReaderConfig rc = cc.getReaderConfig();
+        if (rc != null) {
+            sb.append("reader:").append(rc.getType()).append(':').append(rc.getPath()).append(':')
+                    .append(sortedParams(rc.getParameters())).append('\n');
+        }
+        WalkerConfig wc = cc.getWalkerConfig();
+        if (wc != null) {
+            sb.append("walker:").append(wc.getType()).append(':').append(wc.getRootNamespace()).append(':')
+                    .append(sortedParams(wc.getParams())).append('\n');
+            if (wc.getParserConfig() != null) {
+                sb.append("parser:").append(wc.getParserConfig().getType()).append(':')
+                        .append(sortedParams(wc.getParserConfig().getParameters())).append('\n');
+            }
+            List<TransformationConfig> transformations = wc.getTransformations();
+            if (transformations != null) {
+                for (TransformationConfig tc : transformations) {
+                    sb.append("transformation:").append(tc.getType()).append(':').append(tc.getName()).append(':')
+                            .append(tc.isMergeable()).append(':').append(tc.getMergePolicy()).append(':')
+                            .append(sortedParams(tc.getParameters())).append('\n');
+                }
+            }
+        }
+        if (plugins != null) {
+            for (PluginConfig pc : plugins) {
+                sb.append("plugin:").append(pc.getGroupId()).append(':').append(pc.getArtifactId()).append(':')
+                        .append(pc.getVersion()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private Map<String, String> sortedParams(Map<String, Object> params) {
+        Map<String, String> result = new TreeMap<String, String>();
+        if (params != null) {
+            for (Map.Entry<String, Object> entry : params.entrySet()) {
+                if (!DefaultChainWalkerAdapter.PARALLELISM_PARAM.equals(entry.getKey())
+                        && !"manifestFile".equals(entry.getKey()) && !"configurationHash".equals(entry.getKey())
+                        && !"selectedFiles".equals(entry.getKey())
+                        && !SHARD_INDEX_PARAM.equals(entry.getKey()) && !SHARD_COUNT_PARAM.equals(entry.getKey())) {
+                    result.put(entry.getKey(), String.valueOf(entry.getValue()));
+                }
+            }
+        }
+        return result;
+    }
+
     public void executeChain(String userDir, Options options, ChainAdapterFactory apf, String name) {
         if (options.getIncludes() != null || options.getExcludes() != null) {
             Collection<ChainConfig> chains = getChainConfigs();
@@ -708,6 +867,23 @@ public class ConfigurationImpl implements Configuration {
                 }
             }
         }
+        if (options.isIncremental() || options.getShardCount() > 1) {
+            Collection<ChainConfig> chains = getChainConfigs();
+            if (chains != null) {
+                for (ChainConfig cc : chains) {
+                    setShard(options, cc);
+                    setIncremental(options, cc);
+                }
+            }
+        }
+        if (options.getParallelism() > 1) {
+            Collection<ChainConfig> chains = getChainConfigs();
+            if (chains != null) {
+                for (ChainConfig cc : chains) {
+                    setParallelism(options, cc);
+                }
+            }
+        }
         ChainAdapter ap = apf.createChainProxy(this, name);
         if (ap == null) {
             if (options.isVerbose()) {
@@ -768,6 +944,7 @@ public class ConfigurationImpl implements Configuration {
                     if (ap.getWalkerAdapter().getWalker().reportChanges()) {
                         log.info("Total modified files: " + num);
                     }
+                    logUnchangedFiles();
                     System.out.print("----------------------------------------");
                     System.out.println("----------------------------------------");
                 }
@@ -16,7 +16,11 @@
 
 package org.walkmod.impl;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.logging.Log;
@@ -33,6 +37,11 @@ import org.walkmod.conf.entities.ReaderConfig;
 import org.walkmod.conf.entities.WalkerConfig;
 import org.walkmod.conf.entities.WriterConfig;
 import org.walkmod.exceptions.WalkModException;
+import org.walkmod.util.FileManifest;
+import org.walkmod.util.FileResource;
+import org.walkmod.writers.AbstractPatchWriter;
+import org.walkmod.writers.AsyncChainWriter;
+import org.walkmod.writers.Summary;
 
 public class DefaultChainAdapter implements ChainAdapter {
 
@@ -50,6 +59,18 @@ public class DefaultChainAdapter implements ChainAdapter {
 
 	private ChainWriter modelWriter;
 
+	/**
+	 * Writer parameter with the number of threads that write the results in
+	 * background. The results are written by the walker if it is not set.
+	 */
+	public static final String WRITE_THREADS_PARAM = "writeThreads";
+
+	/**
+	 * Writer parameter with the number of results that can be queued per
+	 * background thread.
+	 */
+	public static final String WRITE_QUEUE_PARAM = "writeQueue";
+
 	private static final Log LOG = LogFactory.getLog(DefaultChainAdapter.class);
 
 	public DefaultChainAdapter() {
@@ -156,14 +177,77 @@ public class DefaultChainAdapter implements ChainAdapter {
 		}
 		writerConfig.setModelWriter(writer);
 		writer.setPath(writerConfig.getPath());
+		int writeThreads = getIntParam(writerConfig.getParams(), WRITE_THREADS_PARAM, 0);
+		if (writeThreads > 0) {
+			if (writer instanceof AbstractPatchWriter) {
+				// all the patches are appended to the same file
+				writeThreads = 1;
+			}
+			int capacity = getIntParam(writerConfig.getParams(), WRITE_QUEUE_PARAM, AsyncChainWriter.DEFAULT_CAPACITY);
+			writer = new AsyncChainWriter(writer, writeThreads, capacity);
+		}
 		setChainWriter(writer);
 		wa.prepare();
 		ai.init(this);
 	}
 
+	private int getIntParam(Map<String, Object> params, String name, int defaultValue) throws WalkModException {
+		if (params != null) {
+			Object value = params.get(name);
+			if (value != null) {
+				try {
+					return Integer.parseInt(value.toString().trim());
+				} catch (NumberFormatException e) {
+					throw new WalkModException("Invalid " + name + " value: " + value, e);
+				}
+			}
+		}
+		return defaultValue;
+	}
+
 	@Override
 	public void execute() throws WalkModException {
-		ai.invoke();
+		boolean success = false;
+		try {
+			ai.invoke();
+			success = true;
+		} finally {
+			closeWriter(success);
+		}
+		if (model instanceof FileResource) {
+			FileManifest manifest = ((FileResource) model).getManifest();
+			if (manifest != null) {
+				try {
+					// the files with pending changes, and those that have
+					// failed, are processed again in the next execution
+					Summary summary = Summary.getInstance();
+					List<File> pending = new LinkedList<File>(summary.getWrittenFiles());
+					pending.addAll(summary.getFailedFiles());
+					manifest.save(pending);
+				} catch (IOException e) {
+					LOG.warn("The manifest " + manifest.getManifestFile().getPath() + " cannot be written", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Closes the writer once the chain is executed, so that it can complete
+	 * the pending writes. Only the background writers and the patch writers,
+	 * which keep the patch file open between writes, are closed: the other
+	 * writers are not closed by the chain, as they never were.
+	 */
+	private void closeWriter(boolean success) throws WalkModException {
+		if (modelWriter instanceof AsyncChainWriter || modelWriter instanceof AbstractPatchWriter) {
+			try {
+				modelWriter.close();
+			} catch (IOException e) {
+				if (success) {
+					throw new WalkModException("The results of the chain " + getName() + " cannot be written", e);
+				}
+				LOG.warn("The writer of the chain " + getName() + " cannot be closed", e);
+			}
+		}
 	}
 
 	@Override
@@ -15,9 +15,11 @@
  along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
 package org.walkmod.impl;
 
+import java.io.File;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -33,11 +35,64 @@ import org.walkmod.conf.entities.Configuration;
 import org.walkmod.conf.entities.TransformationConfig;
 import org.walkmod.conf.entities.WalkerConfig;
 import org.walkmod.exceptions.WalkModException;
+import org.walkmod.util.FileResource;
+import org.walkmod.util.PrefetchingResource;
+import org.walkmod.walkers.AbstractWalker;
+import org.walkmod.walkers.CachingParser;
+import org.walkmod.walkers.DiskCachingParser;
+import org.walkmod.walkers.FailureRecordingParser;
+import org.walkmod.walkers.ParallelWalker;
+import org.walkmod.walkers.ParseCache;
 import org.walkmod.walkers.Parser;
 import org.walkmod.walkers.ParserAware;
+import org.walkmod.walkers.PrefetchedParser;
 
 public class DefaultChainWalkerAdapter implements ChainWalkerAdapter {
 
+	/**
+	 * Walker parameter with the number of threads that process the resource.
+	 */
+	public static final String PARALLELISM_PARAM = "parallelism";
+
+	/**
+	 * Walker parameter with the directory where the parsed files are cached
+	 * between executions. The cache is disabled if it is not set.
+	 */
+	public static final String PARSE_CACHE_PARAM = "parseCache";
+
+	/**
+	 * Walker parameter with the maximum size, in megabytes, of the parse cache
+	 * directory.
+	 */
+	public static final String PARSE_CACHE_SIZE_PARAM = "parseCacheSize";
+
+	/**
+	 * Walker parameter that enables the in-memory cache of the parsed files
+	 * shared by the chains of an execution (true or false). It is disabled if
+	 * it is not set.
+	 */
+	public static final String SHARED_PARSE_CACHE_PARAM = "sharedParseCache";
+
+	/**
+	 * Walker parameter with the maximum size, in megabytes, of the ASTs kept by
+	 * the shared parse cache. As the chains read the files in the same order,
+	 * it should be large enough for all the read files.
+	 */
+	public static final String SHARED_PARSE_CACHE_SIZE_PARAM = "sharedParseCacheSize";
+
+	/**
+	 * Walker parameter with the number of files that are read in advance,
+	 * while the current one is parsed. The prefetch is disabled if it is not
+	 * set.
+	 */
+	public static final String PREFETCH_PARAM = "prefetch";
+
+	/**
+	 * Walker parameter with the maximum size, in megabytes, of the prefetched
+	 * contents.
+	 */
+	public static final String PREFETCH_SIZE_PARAM = "prefetchSize";
+
 	private WalkerConfig config;
 
 	private ChainWalker walker;
@@ -52,6 +107,8 @@ public class DefaultChainWalkerAdapter implements ChainWalkerAdapter {
 
 	private Collection<TransformationConfig> transformationConfigs;
 
+	private Resource<?> walkerResource;
+
 	private static final Log LOG = LogFactory.getLog(DefaultChainWalkerAdapter.class);
 
 	@Override
@@ -72,7 +129,8 @@ public class DefaultChainWalkerAdapter implements ChainWalkerAdapter {
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	@Override
 	public void prepare() throws WalkModException {
-		walker.setResource(getModel());
+		walkerResource = createWalkerResource();
+		walker.setResource(walkerResource);
 		walker.setRootNamespace(config.getRootNamespace());
 		ChainWriter mw = ap.getChainWriter();
 		mw.setExcludes(config.getChainConfig().getWriterConfig().getExcludes());
@@ -82,21 +140,10 @@ public class DefaultChainWalkerAdapter implements ChainWalkerAdapter {
 		ChainConfig ac = config.getChainConfig();
 		Object visitor;
 		Configuration c = ac.getConfiguration();
-		Parser parser = null;
-		String parserType = config.getParserConfig().getType();
-		if (parserType != null) {
-			Object parserInstance = c.getBean(parserType, config.getParserConfig().getParameters());
-			if (parserInstance != null) {
-				if (parserInstance instanceof Parser) {
-					parser = (Parser) parserInstance;
-					walker.setParser(parser);
-				} else {
-					throw new WalkModException(
-							"The parser " + parserType + " must implement " + Parser.class.getName());
-				}
-			} else {
-				throw new WalkModException("The parser " + parserType + " does not exist.");
-			}
+		Parser parser = createParser();
+		if (parser != null) {
+			parser = decorate(parser);
+			walker.setParser(parser);
 		}
 		Collection<TransformationConfig> cfgs = getTransformationConfig();
 		if (cfgs != null) {
@@ -126,12 +173,221 @@ public class DefaultChainWalkerAdapter implements ChainWalkerAdapter {
 			}
 		}
 		walker.setVisitors(visitors);
+		int parallelism = getParallelism();
+		if (parallelism > 1) {
+			ChainWalker parallelWalker = createParallelWalker(parallelism);
+			if (parallelWalker != null) {
+				walker = parallelWalker;
+			}
+		}
 		wi.init(this);
 	}
 
+	@SuppressWarnings("rawtypes")
+	private Parser createParser() throws WalkModException {
+		Parser parser = null;
+		String parserType = config.getParserConfig().getType();
+		if (parserType != null) {
+			Object parserInstance = config.getChainConfig().getConfiguration().getBean(parserType,
+					config.getParserConfig().getParameters());
+			if (parserInstance != null) {
+				if (parserInstance instanceof Parser) {
+					parser = (Parser) parserInstance;
+				} else {
+					throw new WalkModException(
+							"The parser " + parserType + " must implement " + Parser.class.getName());
+				}
+			} else {
+				throw new WalkModException("The parser " + parserType + " does not exist.");
+			}
+		}
+		return parser;
+	}
+
+	/**
+	 * The walker reads the files from the model, or from a resource that
+	 * prefetches them if it is enabled. The visitors always receive the model.
+	 * In parallel executions, the prefetched files are kept until all the
+	 * pending elements of the {@link ParallelWalker} have been parsed.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private Resource<?> createWalkerResource() throws WalkModException {
+		Resource<?> model = getModel();
+		int prefetch = getIntParam(PREFETCH_PARAM, 0);
+		if (prefetch > 0 && model != null) {
+			long maxSize = PrefetchingResource.DEFAULT_MAX_SIZE;
+			int size = getIntParam(PREFETCH_SIZE_PARAM, -1);
+			if (size >= 0) {
+				maxSize = size * 1024L * 1024L;
+			}
+			int parallelism = getParallelism();
+			if (parallelism > 1) {
+				prefetch = Math.max(prefetch, ParallelWalker.getPendingWindow(parallelism));
+			}
+			return new PrefetchingResource(model, prefetch, maxSize);
+		}
+		return model;
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private Parser decorate(Parser parser) throws WalkModException {
+		Map<String, Object> params = config.getParams();
+		if (params != null && params.get(PARSE_CACHE_PARAM) != null) {
+			File directory = new File(params.get(PARSE_CACHE_PARAM).toString());
+			if (!directory.isAbsolute()) {
+				directory = new File(System.getProperty("user.dir"), directory.getPath());
+			}
+			long maxSize = DiskCachingParser.DEFAULT_MAX_SIZE;
+			Object size = params.get(PARSE_CACHE_SIZE_PARAM);
+			if (size != null) {
+				try {
+					maxSize = Long.parseLong(size.toString().trim()) * 1024 * 1024;
+				} catch (NumberFormatException e) {
+					throw new WalkModException("Invalid " + PARSE_CACHE_SIZE_PARAM + " value: " + size, e);
+				}
+			}
+			parser = new DiskCachingParser(parser, directory, maxSize);
+		}
+		ParseCache cache = ParseCache.getInstance();
+		if (cache.isEnabled() && params != null && params.get(SHARED_PARSE_CACHE_PARAM) != null
+				&& Boolean.valueOf(params.get(SHARED_PARSE_CACHE_PARAM).toString().trim())) {
+			int size = getIntParam(SHARED_PARSE_CACHE_SIZE_PARAM, -1);
+			if (size >= 0) {
+				cache.setMaxSize(size * 1024L * 1024L);
+			}
+			parser = new CachingParser(parser, cache);
+		}
+		if (walkerResource instanceof PrefetchingResource) {
+			// outside the caches, so that the contents are always taken and
+			// the caches do not read the files again
+			parser = new PrefetchedParser(parser, (PrefetchingResource) walkerResource);
+		}
+		Resource<?> model = getModel();
+		if (model instanceof FileResource && ((FileResource) model).getManifest() != null) {
+			// the files that cannot be parsed are kept out of the manifest
+			parser = new FailureRecordingParser(parser);
+		}
+		return parser;
+	}
+
+	private int getParallelism() throws WalkModException {
+		return getIntParam(PARALLELISM_PARAM, 1);
+	}
+
+	private int getIntParam(String name, int defaultValue) throws WalkModException {
+		Map<String, Object> params = config.getParams();
+		if (params != null) {
+			Object value = params.get(name);
+			if (value != null) {
+				try {
+					return Integer.parseInt(value.toString().trim());
+				} catch (NumberFormatException e) {
+					throw new WalkModException("Invalid " + name + " value: " + value, e);
+				}
+			}
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * Creates a walker that distributes the resource elements between new
+	 * instances of the configured walker, visitors and parser. If the
+	 * configured beans can not be instantiated again (e.g. they are
+	 * singletons), the sequential walker is used.
+	 */
+	private ChainWalker createParallelWalker(int parallelism) throws WalkModException {
+		if (!(walker instanceof AbstractWalker) || config.getType() == null) {
+			LOG.warn("The walker of the chain " + config.getChainConfig().getName()
+					+ " does not support parallel executions");
+			return null;
+		}
+		List<AbstractWalker> workers = new LinkedList<AbstractWalker>();
+		for (int i = 0; i < parallelism; i++) {
+			AbstractWalker worker = createWorker(workers);
+			if (worker == null) {
+				LOG.warn("The walker, parser and visitors of the chain " + config.getChainConfig().getName()
+						+ " can not be instantiated per thread. It will be executed sequentially");
+				return null;
+			}
+			workers.add(worker);
+		}
+		LOG.debug("chain[\"" + config.getChainConfig().getName() + "\"] runs with " + parallelism + " threads");
+		return new ParallelWalker((AbstractWalker) walker, workers);
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private AbstractWalker createWorker(List<AbstractWalker> workers) throws WalkModException {
+		Configuration c = config.getChainConfig().getConfiguration();
+		Object instance = c.getBean(config.getType(), config.getParams());
+		if (!(instance instanceof AbstractWalker) || instance == walker || workers.contains(instance)) {
+			return null;
+		}
+		AbstractWalker worker = (AbstractWalker) instance;
+		worker.setResource(walkerResource);
+		worker.setRootNamespace(config.getRootNamespace());
+		worker.setWriter(ap.getChainWriter());
+		worker.setChainConfig(config.getChainConfig());
+		worker.setConstraintProviders(walker.getConstraintProviders());
+		Parser parser = createParser();
+		if (parser != null) {
+			Parser current = walker.getParser();
+			if (current instanceof FailureRecordingParser) {
+				current = ((FailureRecordingParser) current).getParser();
+			}
+			if (current instanceof PrefetchedParser) {
+				current = ((PrefetchedParser) current).getParser();
+			}
+			if (current instanceof CachingParser) {
+				current = ((CachingParser) current).getParser();
+			}
+			if (current instanceof DiskCachingParser) {
+				current = ((DiskCachingParser) current).getParser();
+			}
+			if (parser == current) {
+				return null;
+			}
+			parser = decorate(parser);
+			worker.setParser(parser);
+		}
+		List<Object> workerVisitors = new LinkedList<Object>();
+		Collection<TransformationConfig> cfgs = getTransformationConfig();
+		if (cfgs != null) {
+			for (TransformationConfig tc : cfgs) {
+				if (tc.getVisitorInstance() != null) {
+					return null;
+				}
+				Object visitor = c.getBean(tc.getType(), tc.getParameters());
+				if (visitor == null) {
+					return null;
+				}
+				for (Object existing : visitors) {
+					if (existing == visitor) {
+						return null;
+					}
+				}
+				if (visitor instanceof ResourceModifier) {
+					((ResourceModifier) visitor).setResource(getModel());
+				}
+				if (visitor instanceof ParserAware) {
+					((ParserAware) visitor).setParser(parser);
+				}
+				workerVisitors.add(visitor);
+			}
+		}
+		worker.setVisitors(workerVisitors);
+		return worker;
+	}
+
 	@Override
 	public void execute() throws WalkModException {
-		wi.invoke();
+		try {
+			wi.invoke();
+		} finally {
+			if (walkerResource instanceof PrefetchingResource) {
+				// the walk may have stopped before the end of the files
+				((PrefetchingResource<?>) walkerResource).close();
+			}
+		}
 	}
 
 	@Override
@@ -0,0 +1,144 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+  Walkmod is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+ 
+  Walkmod is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+ 
+  You should have received a copy of the GNU Lesser General Public License
+  along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.patches;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Formats the patches as compact JSON objects, one per line (newline-delimited
+ * JSON), so that the patch file can be read line by line. The objects are
+ * written with a streaming generator: each thread reuses the one of its
+ * buffer to format them as strings, and they can also be written directly in
+ * the output of the patch writer.
+ */
+public class NdjsonPatchFormatter implements PatchFormatter {
+
+    private final JsonFactory factory = new JsonFactory();
+
+    private final ThreadLocal<Output> outputs = new ThreadLocal<Output>() {
+        @Override
+        protected Output initialValue() {
+            return new Output();
+        }
+    };
+
+    public NdjsonPatchFormatter() {
+        // the objects are separated by line breaks, not by spaces
+        factory.setRootValueSeparator(null);
+        factory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        // the patch writer decides when its output is flushed
+        factory.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+    }
+
+    @Override
+    public String format(Patch patch) {
+        Output output = outputs.get();
+        output.buffer.reset();
+        try {
+            writePatch(output.getGenerator(), patch);
+            output.generator.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return output.buffer.toString();
+    }
+
+    @Override
+    public String format(String location, List<Patch> patches) {
+        Output output = outputs.get();
+        output.buffer.reset();
+        try {
+            writeFile(output.getGenerator(), location, patches);
+            output.generator.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return output.buffer.toString();
+    }
+
+    /**
+     * Writes the patches of a file in a line of the output.
+     *
+     * @param location
+     *            patched file
+     * @param patches
+     *            patches of the file
+     * @param writer
+     *            output. It is neither flushed nor closed.
+     * @throws IOException
+     *             if the output cannot be written
+     */
+    public void write(String location, List<Patch> patches, Writer writer) throws IOException {
+        // the generator only keeps the writer during the call, and closing it
+        // returns its buffers to be reused by the next one
+        JsonGenerator generator = factory.createGenerator(writer);
+        try {
+            writeFile(generator, location, patches);
+        } finally {
+            generator.close();
+        }
+        writer.write('\n');
+    }
+
+    private void writeFile(JsonGenerator generator, String location, List<Patch> patches) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("file", location);
+        generator.writeArrayFieldStart("patches");
+        if (patches != null) {
+            for (Patch patch : patches) {
+                writePatch(generator, patch);
+            }
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    private void writePatch(JsonGenerator generator, Patch patch) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("diff", patch.getDiff());
+        generator.writeNumberField("beginLine", patch.getBeginLine());
+        generator.writeNumberField("beginColumn", patch.getBeginColumn());
+        generator.writeNumberField("endLine", patch.getEndLine());
+        generator.writeNumberField("endColumn", patch.getEndColumn());
+        generator.writeStringField("cause", patch.getCause());
+        generator.writeStringField("location", patch.getLocation());
+        generator.writeBooleanField("isMultiple", patch.getIsMultiple());
+        generator.writeEndObject();
+    }
+
+    /**
+     * Buffer of a thread, and the generator that writes in it.
+     */
+    private class Output {
+
+        private final CharArrayWriter buffer = new CharArrayWriter(1024);
+
+        private JsonGenerator generator;
+
+        public JsonGenerator getGenerator() throws IOException {
+            if (generator == null) {
+                generator = factory.createGenerator(buffer);
+            }
+            return generator;
+        }
+    }
+}
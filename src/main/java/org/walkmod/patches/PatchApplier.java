@@ -0,0 +1,520 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+  Walkmod is free software: you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation, either version 3 of the License, or
+  (at your option) any later version.
+ 
+  Walkmod is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+ 
+  You should have received a copy of the GNU Lesser General Public License
+  along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.patches;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipInputStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Applies the patches generated by walkmod (raw, json or ndjson formats, and
+ * optionally compressed with gzip or zip) to a directory. The patch file is read sequentially and its hunks are grouped by
+ * file. Then, the files are patched in parallel, and each one is written once
+ * with all its hunks.
+ *
+ * A file is not modified if it has a conflict: it is outside the base
+ * directory, its lines do not match the context or removed lines of a hunk,
+ * or two of its hunks overlap. The patched content is written in a temporary
+ * file of the same directory, which then replaces the file, so that a failed
+ * write does not leave it truncated.
+ */
+public class PatchApplier {
+
+	private final File baseDirectory;
+
+	private final String encoding;
+
+	private final Map<String, List<Hunk>> hunks = new LinkedHashMap<String, List<Hunk>>();
+
+	private final List<File> patchedFiles = Collections.synchronizedList(new ArrayList<File>());
+
+	private final Map<File, String> conflicts = Collections.synchronizedMap(new LinkedHashMap<File, String>());
+
+	/**
+	 * @param baseDirectory
+	 *            directory against which the relative paths of the patches
+	 *            are resolved
+	 * @param encoding
+	 *            encoding of the patched files and the patch file
+	 */
+	public PatchApplier(File baseDirectory, String encoding) {
+		this.baseDirectory = baseDirectory;
+		this.encoding = encoding;
+	}
+
+	/**
+	 * Reads the hunks of a patch file.
+	 *
+	 * @param patchFile
+	 *            file generated by walkmod patch
+	 * @throws IOException
+	 *             if the file cannot be read or is not a valid patch
+	 */
+	public void read(File patchFile) throws IOException {
+		InputStream is = new BufferedInputStream(new FileInputStream(patchFile));
+		try {
+			is.mark(2);
+			int b1 = is.read();
+			int b2 = is.read();
+			is.reset();
+			if (b1 == 0x1f && b2 == 0x8b) {
+				read(new BufferedInputStream(new GZIPInputStream(is)));
+			} else if (b1 == 'P' && b2 == 'K') {
+				ZipInputStream zis = new ZipInputStream(is);
+				while (zis.getNextEntry() != null) {
+					read(new BufferedInputStream(zis));
+				}
+			} else {
+				read(is);
+			}
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Reads the patches of a stream, which is not closed.
+	 */
+	private void read(InputStream is) throws IOException {
+		is.mark(1024);
+		int c = is.read();
+		while (c != -1 && Character.isWhitespace(c)) {
+			c = is.read();
+		}
+		is.reset();
+		Reader reader = new InputStreamReader(is, encoding);
+		if (c == '{') {
+			readJson(reader);
+		} else {
+			readDiff(new BufferedReader(reader));
+		}
+	}
+
+	/**
+	 * Reads the diffs of a sequence of JSON objects: a patch, or a file with
+	 * its patches, per object.
+	 */
+	private void readJson(Reader reader) throws IOException {
+		JsonFactory factory = new JsonFactory();
+		factory.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+		JsonParser parser = factory.createParser(reader);
+		try {
+			JsonToken token = parser.nextToken();
+			while (token != null) {
+				if (token == JsonToken.FIELD_NAME && "diff".equals(parser.getCurrentName())) {
+					if (parser.nextToken() == JsonToken.VALUE_STRING) {
+						readDiff(new BufferedReader(new StringReader(parser.getText())));
+					}
+				}
+				token = parser.nextToken();
+			}
+		} finally {
+			parser.close();
+		}
+	}
+
+	private void readDiff(BufferedReader reader) throws IOException {
+		String file = null;
+		Hunk hunk = null;
+		String line = readLine(reader);
+		while (line != null) {
+			if (hunk != null && !hunk.isComplete()) {
+				hunk.add(line);
+				line = readLine(reader);
+				continue;
+			}
+			line = stripCR(line);
+			if (line.startsWith("--- ")) {
+				file = getPath(line.substring(4), "a");
+			} else if (line.startsWith("+++ ")) {
+				if (file == null) {
+					file = getPath(line.substring(4), "b");
+				}
+			} else if (line.startsWith("@@ ")) {
+				if (file == null) {
+					throw new IOException("Hunk without file: " + line);
+				}
+				hunk = Hunk.parse(line);
+				List<Hunk> fileHunks = hunks.get(file);
+				if (fileHunks == null) {
+					fileHunks = new ArrayList<Hunk>();
+					hunks.put(file, fileHunks);
+				}
+				fileHunks.add(hunk);
+			}
+			line = readLine(reader);
+		}
+		if (hunk != null && !hunk.isComplete()) {
+			throw new IOException("Incomplete hunk for " + file);
+		}
+	}
+
+	/**
+	 * Reads a line ending with '\n'. The carriage returns are kept, because
+	 * the diffs are generated splitting the files by '\n', so they belong to
+	 * the content of the lines.
+	 */
+	private static String readLine(BufferedReader reader) throws IOException {
+		StringBuilder sb = null;
+		int c = reader.read();
+		while (c != -1 && c != '\n') {
+			if (sb == null) {
+				sb = new StringBuilder();
+			}
+			sb.append((char) c);
+			c = reader.read();
+		}
+		if (c == -1 && sb == null) {
+			return null;
+		}
+		return sb == null ? "" : sb.toString();
+	}
+
+	private static String stripCR(String line) {
+		if (line.endsWith("\r")) {
+			return line.substring(0, line.length() - 1);
+		}
+		return line;
+	}
+
+	private static String getPath(String header, String prefix) {
+		int tab = header.indexOf('\t');
+		if (tab != -1) {
+			header = header.substring(0, tab);
+		}
+		if (header.startsWith(prefix + "/") || header.startsWith(prefix + "\\")) {
+			header = header.substring(prefix.length() + 1);
+		}
+		return header;
+	}
+
+	/**
+	 * @return the number of files with hunks
+	 */
+	public int getNumFiles() {
+		return hunks.size();
+	}
+
+	/**
+	 * Patches the files with the read hunks.
+	 *
+	 * @param threads
+	 *            number of files patched at the same time
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while it waits for the files
+	 */
+	public void apply(int threads) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (final Map.Entry<String, List<Hunk>> entry : hunks.entrySet()) {
+				futures.add(executor.submit(new Runnable() {
+
+					@Override
+					public void run() {
+						apply(entry.getKey(), entry.getValue());
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					throw new IllegalStateException(e.getCause());
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private void apply(String path, List<Hunk> fileHunks) {
+		File file = new File(path);
+		if (!file.isAbsolute()) {
+			file = new File(baseDirectory, path);
+		}
+		try {
+			file = file.getCanonicalFile();
+			// covers the absolute paths and those with .. or links
+			if (!file.getPath().startsWith(baseDirectory.getCanonicalPath() + File.separator)) {
+				conflicts.put(file, "the file is outside " + baseDirectory.getPath());
+				return;
+			}
+			if (!file.isFile()) {
+				conflicts.put(file, "the file does not exist");
+				return;
+			}
+			String content = new String(readFully(file), encoding);
+			String[] lines = content.split("\n", -1);
+			List<Hunk> sorted = new ArrayList<Hunk>(fileHunks);
+			Collections.sort(sorted);
+			StringBuilder sb = new StringBuilder(content.length() + 256);
+			int line = 0;
+			Hunk previous = null;
+			for (Hunk hunk : sorted) {
+				if (previous != null && previous.equals(hunk)) {
+					continue;
+				}
+				int position = hunk.getPosition();
+				if (position < line) {
+					conflicts.put(file, "overlapping hunks at line " + (position + 1));
+					return;
+				}
+				if (!hunk.matches(lines, position)) {
+					conflicts.put(file, "the lines do not match the hunk at line " + (position + 1));
+					return;
+				}
+				for (; line < position; line++) {
+					appendLine(sb, lines[line]);
+				}
+				List<String> revised = hunk.getRevisedLines();
+				for (int i = 0; i < revised.size(); i++) {
+					int context = hunk.getContextIndex(i);
+					if (context != -1) {
+						// the context lines are kept as they are in the file
+						appendLine(sb, lines[position + context]);
+					} else {
+						appendLine(sb, revised.get(i));
+					}
+				}
+				line = position + hunk.getOriginalSize();
+				previous = hunk;
+			}
+			for (; line < lines.length; line++) {
+				appendLine(sb, lines[line]);
+			}
+			// the last line has no line break
+			if (sb.length() > 0) {
+				sb.setLength(sb.length() - 1);
+			}
+			write(file, sb.toString());
+			patchedFiles.add(file);
+		} catch (IOException e) {
+			conflicts.put(file, e.getMessage());
+		}
+	}
+
+	/**
+	 * Replaces the content of a file through a temporary file of the same
+	 * directory.
+	 */
+	private void write(File file, String content) throws IOException {
+		File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+		try {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), encoding);
+			try {
+				writer.write(content);
+			} finally {
+				writer.close();
+			}
+			// the rename does not replace an existing file in some platforms
+			if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+				throw new IOException("The file " + file.getPath() + " cannot be replaced");
+			}
+		} finally {
+			if (tmp.exists()) {
+				tmp.delete();
+			}
+		}
+	}
+
+	private static void appendLine(StringBuilder sb, String line) {
+		sb.append(line).append('\n');
+	}
+
+	private static byte[] readFully(File file) throws IOException {
+		InputStream is = new FileInputStream(file);
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream((int) file.length());
+			byte[] buffer = new byte[8192];
+			int read = is.read(buffer);
+			while (read != -1) {
+				baos.write(buffer, 0, read);
+				read = is.read(buffer);
+			}
+			return baos.toByteArray();
+		} finally {
+			is.close();
+		}
+	}
+
+	public List<File> getPatchedFiles() {
+		return patchedFiles;
+	}
+
+	/**
+	 * @return the files that have not been patched, with the reason
+	 */
+	public Map<File, String> getConflicts() {
+		return conflicts;
+	}
+
+	/**
+	 * Block of a unified diff: the original lines (context and removed) that
+	 * are replaced by the revised ones (context and added).
+	 */
+	private static class Hunk implements Comparable<Hunk> {
+
+		private final int originalStart;
+
+		private final int originalCount;
+
+		private final int revisedCount;
+
+		private final List<String> originalLines = new ArrayList<String>();
+
+		private final List<String> revisedLines = new ArrayList<String>();
+
+		private final List<Integer> contextIndexes = new ArrayList<Integer>();
+
+		private Hunk(int originalStart, int originalCount, int revisedCount) {
+			this.originalStart = originalStart;
+			this.originalCount = originalCount;
+			this.revisedCount = revisedCount;
+		}
+
+		/**
+		 * Parses a header like <code>@@ -1,7 +1,8 @@</code>.
+		 */
+		public static Hunk parse(String header) throws IOException {
+			String[] parts = header.split(" ");
+			if (parts.length < 3 || !parts[1].startsWith("-") || !parts[2].startsWith("+")) {
+				throw new IOException("Invalid hunk header: " + header);
+			}
+			try {
+				int[] original = parseRange(parts[1].substring(1));
+				int[] revised = parseRange(parts[2].substring(1));
+				return new Hunk(original[0], original[1], revised[1]);
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid hunk header: " + header);
+			}
+		}
+
+		private static int[] parseRange(String range) {
+			int comma = range.indexOf(',');
+			if (comma == -1) {
+				return new int[] { Integer.parseInt(range), 1 };
+			}
+			return new int[] { Integer.parseInt(range.substring(0, comma)),
+					Integer.parseInt(range.substring(comma + 1)) };
+		}
+
+		public boolean isComplete() {
+			return originalLines.size() >= originalCount && revisedLines.size() >= revisedCount;
+		}
+
+		public void add(String line) throws IOException {
+			if (line.length() == 0 || line.charAt(0) == ' ') {
+				String text = line.length() == 0 ? line : line.substring(1);
+				contextIndexes.add(originalLines.size());
+				originalLines.add(text);
+				revisedLines.add(text);
+			} else if (line.charAt(0) == '-') {
+				originalLines.add(line.substring(1));
+			} else if (line.charAt(0) == '+') {
+				contextIndexes.add(-1);
+				revisedLines.add(line.substring(1));
+			} else if (line.charAt(0) != '\\') {
+				throw new IOException("Invalid hunk line: " + line);
+			}
+		}
+
+		/**
+		 * @return the index of the first original line
+		 */
+		public int getPosition() {
+			// an empty range starts after the given line
+			return originalCount == 0 ? originalStart : originalStart - 1;
+		}
+
+		public int getOriginalSize() {
+			return originalLines.size();
+		}
+
+		public List<String> getRevisedLines() {
+			return revisedLines;
+		}
+
+		/**
+		 * @return the index of the original line of a context line, or -1 if
+		 *         the revised line is added
+		 */
+		public int getContextIndex(int revisedIndex) {
+			return contextIndexes.get(revisedIndex);
+		}
+
+		/**
+		 * Compares the original lines of the hunk with the lines of a file,
+		 * ignoring the carriage returns.
+		 */
+		public boolean matches(String[] lines, int position) {
+			if (position + originalLines.size() > lines.length) {
+				return false;
+			}
+			for (int i = 0; i < originalLines.size(); i++) {
+				if (!stripCR(lines[position + i]).equals(stripCR(originalLines.get(i)))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public int compareTo(Hunk o) {
+			return getPosition() < o.getPosition() ? -1 : (getPosition() > o.getPosition() ? 1 : 0);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Hunk)) {
+				return false;
+			}
+			Hunk other = (Hunk) o;
+			return originalStart == other.originalStart && originalLines.equals(other.originalLines)
+					&& revisedLines.equals(other.revisedLines);
+		}
+
+		@Override
+		public int hashCode() {
+			return originalStart * 31 + originalLines.hashCode();
+		}
+	}
+}
@@ -17,7 +17,8 @@ package org.walkmod.patches;
 
 public enum PatchFormat {
 
-	JSON("json", new JsonPatchFormatter()), RAW("raw", new RawPatchFormatter());
+	JSON("json", new JsonPatchFormatter()), NDJSON("ndjson", new NdjsonPatchFormatter()), RAW("raw",
+			new RawPatchFormatter());
 
 	private final String name;
 
@@ -16,9 +16,13 @@
 package org.walkmod.patches;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import difflib.DiffUtils;
 import difflib.Patch;
@@ -26,23 +30,266 @@ import difflib.PatchFailedException;
 
 public class Patches {
 
+	private static final int CONTEXT_SIZE = 4;
+
 	public static String generatePatch(String originalText, String text, String location) {
-		List<String> original = Arrays.asList(originalText.split("\n"));
-		List<String> revised = Arrays.asList(text.split("\n"));
+		StringBuilder sb = new StringBuilder();
+		try {
+			generatePatch(originalText, text, location, sb);
+		} catch (IOException e) {
+			// a StringBuilder is never closed
+			throw new IllegalStateException(e);
+		}
+		return sb.toString();
+	}
 
-		Patch<String> patches = DiffUtils.diff(original, revised);
-		List<String> unifiedDiffs = DiffUtils.generateUnifiedDiff("a" + File.separator + location, "b" + File.separator
-				+ location, original, patches, 4);
-		Iterator<String> it = unifiedDiffs.iterator();
+	/**
+	 * Writes the unified diff between two texts, with 4 lines of context, in
+	 * the same format than java-diff-utils. The common first and last lines are
+	 * discarded before comparing the texts, and the rest of lines are compared
+	 * by their identifiers with the linear space variant of the Myers
+	 * algorithm.
+	 *
+	 * @param originalText
+	 *            original text
+	 * @param text
+	 *            revised text
+	 * @param location
+	 *            path of the file, used in the diff header
+	 * @param out
+	 *            where the diff lines are written, separated by line breaks.
+	 *            Nothing is written if the texts have the same lines.
+	 * @throws IOException
+	 *             if the output cannot be written
+	 */
+	public static void generatePatch(String originalText, String text, String location, Appendable out)
+			throws IOException {
+		String[] original = originalText.split("\n");
+		String[] revised = text.split("\n");
+		List<Delta> deltas = diff(original, revised);
+		if (deltas.isEmpty()) {
+			return;
+		}
+		out.append("--- a").append(File.separator).append(location);
+		out.append("\n+++ b").append(File.separator).append(location);
+		int first = 0;
+		for (int i = 1; i < deltas.size(); i++) {
+			Delta previous = deltas.get(i - 1);
+			if (previous.originalEnd() + CONTEXT_SIZE < deltas.get(i).originalPosition - CONTEXT_SIZE) {
+				writeHunk(original, revised, deltas.subList(first, i), out);
+				first = i;
+			}
+		}
+		writeHunk(original, revised, deltas.subList(first, deltas.size()), out);
+	}
 
-		StringBuffer sb = new StringBuffer();
-		while (it.hasNext()) {
-			sb.append(it.next());
-			if (it.hasNext()) {
-				sb.append('\n');
+	private static void writeHunk(String[] original, String[] revised, List<Delta> deltas, Appendable out)
+			throws IOException {
+		Delta first = deltas.get(0);
+		Delta last = deltas.get(deltas.size() - 1);
+		int contextStart = Math.max(0, first.originalPosition - CONTEXT_SIZE);
+		int contextEnd = Math.min(original.length, last.originalEnd() + CONTEXT_SIZE);
+		int common = (first.originalPosition - contextStart) + (contextEnd - last.originalEnd());
+		int originalTotal = common;
+		int revisedTotal = common;
+		for (int i = 0; i < deltas.size(); i++) {
+			Delta delta = deltas.get(i);
+			originalTotal += delta.originalSize;
+			revisedTotal += delta.revisedSize;
+			if (i > 0) {
+				int gap = delta.originalPosition - deltas.get(i - 1).originalEnd();
+				originalTotal += gap;
+				revisedTotal += gap;
 			}
 		}
-		return sb.toString();
+		out.append("\n@@ -").append(Integer.toString(Math.max(1, first.originalPosition + 1 - CONTEXT_SIZE)))
+				.append(',').append(Integer.toString(originalTotal));
+		out.append(" +").append(Integer.toString(Math.max(1, first.revisedPosition + 1 - CONTEXT_SIZE)))
+				.append(',').append(Integer.toString(revisedTotal)).append(" @@");
+		int line = contextStart;
+		for (Delta delta : deltas) {
+			for (; line < delta.originalPosition; line++) {
+				out.append("\n ").append(original[line]);
+			}
+			for (int i = 0; i < delta.originalSize; i++) {
+				out.append("\n-").append(original[delta.originalPosition + i]);
+			}
+			for (int i = 0; i < delta.revisedSize; i++) {
+				out.append("\n+").append(revised[delta.revisedPosition + i]);
+			}
+			line = delta.originalEnd();
+		}
+		for (; line < contextEnd; line++) {
+			out.append("\n ").append(original[line]);
+		}
+	}
+
+	/**
+	 * @return the changed blocks of lines, in order
+	 */
+	private static List<Delta> diff(String[] original, String[] revised) {
+		int prefix = 0;
+		int limit = Math.min(original.length, revised.length);
+		while (prefix < limit && original[prefix].equals(revised[prefix])) {
+			prefix++;
+		}
+		int suffix = 0;
+		limit -= prefix;
+		while (suffix < limit
+				&& original[original.length - 1 - suffix].equals(revised[revised.length - 1 - suffix])) {
+			suffix++;
+		}
+		int n = original.length - prefix - suffix;
+		int m = revised.length - prefix - suffix;
+		int[] a = new int[n];
+		int[] b = new int[m];
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		for (int i = 0; i < n; i++) {
+			a[i] = getId(ids, original[prefix + i]);
+		}
+		for (int i = 0; i < m; i++) {
+			b[i] = getId(ids, revised[prefix + i]);
+		}
+		boolean[] deleted = new boolean[n];
+		boolean[] inserted = new boolean[m];
+		compare(a, 0, n, b, 0, m, deleted, inserted);
+
+		List<Delta> deltas = new ArrayList<Delta>();
+		int i = 0;
+		int j = 0;
+		while (i < n || j < m) {
+			if (i < n && j < m && !deleted[i] && !inserted[j]) {
+				i++;
+				j++;
+			} else {
+				int startI = i;
+				int startJ = j;
+				while (i < n && deleted[i]) {
+					i++;
+				}
+				while (j < m && inserted[j]) {
+					j++;
+				}
+				deltas.add(new Delta(prefix + startI, i - startI, prefix + startJ, j - startJ));
+			}
+		}
+		return deltas;
+	}
+
+	private static int getId(Map<String, Integer> ids, String line) {
+		Integer id = ids.get(line);
+		if (id == null) {
+			id = ids.size();
+			ids.put(line, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Marks the deleted and inserted lines of a[aLow, aHigh) and b[bLow,
+	 * bHigh) splitting both ranges by the middle snake of their shortest
+	 * edit script.
+	 */
+	private static void compare(int[] a, int aLow, int aHigh, int[] b, int bLow, int bHigh, boolean[] deleted,
+			boolean[] inserted) {
+		while (aLow < aHigh && bLow < bHigh && a[aLow] == b[bLow]) {
+			aLow++;
+			bLow++;
+		}
+		while (aLow < aHigh && bLow < bHigh && a[aHigh - 1] == b[bHigh - 1]) {
+			aHigh--;
+			bHigh--;
+		}
+		if (aLow == aHigh) {
+			Arrays.fill(inserted, bLow, bHigh, true);
+		} else if (bLow == bHigh) {
+			Arrays.fill(deleted, aLow, aHigh, true);
+		} else {
+			int[] snake = middleSnake(a, aLow, aHigh, b, bLow, bHigh);
+			compare(a, aLow, snake[0], b, bLow, snake[1], deleted, inserted);
+			compare(a, snake[2], aHigh, b, snake[3], bHigh, deleted, inserted);
+		}
+	}
+
+	/**
+	 * @return the start and end points (x, y, u, v) of the middle snake
+	 */
+	private static int[] middleSnake(int[] a, int aLow, int aHigh, int[] b, int bLow, int bHigh) {
+		int n = aHigh - aLow;
+		int m = bHigh - bLow;
+		int delta = n - m;
+		boolean odd = (delta & 1) != 0;
+		int max = (n + m + 1) / 2;
+		int offset = max + 1;
+		int[] forward = new int[2 * max + 3];
+		int[] backward = new int[2 * max + 3];
+		for (int d = 0; d <= max; d++) {
+			for (int k = -d; k <= d; k += 2) {
+				int x;
+				if (k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])) {
+					x = forward[offset + k + 1];
+				} else {
+					x = forward[offset + k - 1] + 1;
+				}
+				int y = x - k;
+				int startX = x;
+				int startY = y;
+				while (x < n && y < m && a[aLow + x] == b[bLow + y]) {
+					x++;
+					y++;
+				}
+				forward[offset + k] = x;
+				if (odd && k >= delta - (d - 1) && k <= delta + (d - 1)
+						&& x + backward[offset + delta - k] >= n) {
+					return new int[] { aLow + startX, bLow + startY, aLow + x, bLow + y };
+				}
+			}
+			for (int k = -d; k <= d; k += 2) {
+				int x;
+				if (k == -d || (k != d && backward[offset + k - 1] < backward[offset + k + 1])) {
+					x = backward[offset + k + 1];
+				} else {
+					x = backward[offset + k - 1] + 1;
+				}
+				int y = x - k;
+				int startX = x;
+				int startY = y;
+				while (x < n && y < m && a[aHigh - 1 - x] == b[bHigh - 1 - y]) {
+					x++;
+					y++;
+				}
+				backward[offset + k] = x;
+				if (!odd && k >= delta - d && k <= delta + d && x + forward[offset + delta - k] >= n) {
+					return new int[] { aHigh - x, bHigh - y, aHigh - startX, bHigh - startY };
+				}
+			}
+		}
+		throw new IllegalStateException("The middle snake has not been found");
+	}
+
+	/**
+	 * Block of original lines replaced by a block of revised lines.
+	 */
+	private static class Delta {
+
+		private final int originalPosition;
+
+		private final int originalSize;
+
+		private final int revisedPosition;
+
+		private final int revisedSize;
+
+		public Delta(int originalPosition, int originalSize, int revisedPosition, int revisedSize) {
+			this.originalPosition = originalPosition;
+			this.originalSize = originalSize;
+			this.revisedPosition = revisedPosition;
+			this.revisedSize = revisedSize;
+		}
+
+		public int originalEnd() {
+			return originalPosition + originalSize;
+		}
 	}
 
 	public static String applyPatch(String text, String patch) throws PatchFailedException {
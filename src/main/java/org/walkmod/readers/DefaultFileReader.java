@@ -16,15 +16,27 @@
 package org.walkmod.readers;
 
 import java.io.File;
+import java.util.Collection;
 
 import org.walkmod.ChainReader;
 import org.walkmod.Resource;
+import org.walkmod.util.FileManifest;
 import org.walkmod.util.FileResource;
 
 public class DefaultFileReader extends ChainReader {
 
 	private String[] extensions;
 
+	private String manifestFile;
+
+	private String configurationHash;
+
+	private int shardIndex = 1;
+
+	private int shardCount = 1;
+
+	private Collection<File> selectedFiles;
+
 	public String[] getExtensions() {
 		return extensions;
 	}
@@ -33,6 +45,73 @@ public class DefaultFileReader extends ChainReader {
 		this.extensions = extensions;
 	}
 
+	public String getManifestFile() {
+		return manifestFile;
+	}
+
+	/**
+	 * Enables the incremental mode: only the files that are new or have
+	 * changed since the previous execution are read.
+	 *
+	 * @param manifestFile
+	 *            path of the file that keeps the state of the processed files.
+	 */
+	public void setManifestFile(String manifestFile) {
+		this.manifestFile = manifestFile;
+	}
+
+	public String getConfigurationHash() {
+		return configurationHash;
+	}
+
+	/**
+	 * @param configurationHash
+	 *            hash of the chain configuration. The manifest is discarded if
+	 *            it was created with a different one.
+	 */
+	public void setConfigurationHash(String configurationHash) {
+		this.configurationHash = configurationHash;
+	}
+
+	public int getShardIndex() {
+		return shardIndex;
+	}
+
+	/**
+	 * @param shardIndex
+	 *            shard of the files that are read, from 1 to the shard count.
+	 */
+	public void setShardIndex(int shardIndex) {
+		this.shardIndex = shardIndex;
+	}
+
+	public int getShardCount() {
+		return shardCount;
+	}
+
+	/**
+	 * @param shardCount
+	 *            number of shards in which the files are split.
+	 */
+	public void setShardCount(int shardCount) {
+		this.shardCount = shardCount;
+	}
+
+	public Collection<File> getSelectedFiles() {
+		return selectedFiles;
+	}
+
+	/**
+	 * Restricts the reader to a set of files (e.g. those changed since the
+	 * previous execution of a watch).
+	 *
+	 * @param selectedFiles
+	 *            files to read. Null to read all the directory files.
+	 */
+	public void setSelectedFiles(Collection<File> selectedFiles) {
+		this.selectedFiles = selectedFiles;
+	}
+
 	@Override
 	public Resource<File> read() throws Exception {
 		FileResource resource = new FileResource();
@@ -40,6 +119,15 @@ public class DefaultFileReader extends ChainReader {
 		resource.setExtensions(getExtensions());
 		resource.setExcludes(getExcludes());
 		resource.setIncludes(getIncludes());
+		if (shardCount > 1) {
+			resource.setShard(shardIndex, shardCount);
+		}
+		if (manifestFile != null) {
+			resource.setManifest(FileManifest.load(new File(manifestFile), configurationHash));
+		}
+		if (selectedFiles != null) {
+			resource.setSelectedFiles(selectedFiles);
+		}
 		return resource;
 	}
 }
@@ -0,0 +1,211 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.readers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.walkmod.Resource;
+import org.walkmod.util.FileResource;
+
+/**
+ * Reader of the files of a local git repository that have been added or
+ * modified with respect to a base revision. The files are obtained from the
+ * <code>git</code> command, executed in the reader path, and the extensions,
+ * includes and excludes are applied as in {@link DefaultFileReader}.
+ */
+public class GitDiffFileReader extends DefaultFileReader {
+
+	private String ref = "HEAD";
+
+	private boolean staged = false;
+
+	private String gitCommand = "git";
+
+	public String getRef() {
+		return ref;
+	}
+
+	/**
+	 * @param ref
+	 *            base revision (e.g. a branch, tag or commit). The default
+	 *            value is HEAD.
+	 */
+	public void setRef(String ref) {
+		this.ref = ref;
+	}
+
+	public boolean isStaged() {
+		return staged;
+	}
+
+	/**
+	 * @param staged
+	 *            if true, only the changes of the index are read. Otherwise,
+	 *            the working tree is compared with the base revision.
+	 */
+	public void setStaged(boolean staged) {
+		this.staged = staged;
+	}
+
+	public String getGitCommand() {
+		return gitCommand;
+	}
+
+	public void setGitCommand(String gitCommand) {
+		this.gitCommand = gitCommand;
+	}
+
+	@Override
+	public Resource<File> read() throws Exception {
+		FileResource resource = (FileResource) super.read();
+		resource.setSelectedFiles(getChangedFiles(resource.getFile()));
+		return resource;
+	}
+
+	/**
+	 * @param directory
+	 *            directory of the repository whose changed files are returned
+	 * @return the added, copied, modified and renamed files of the directory
+	 *         and, unless only the index is compared, the untracked files that
+	 *         are not ignored
+	 * @throws IOException
+	 *             if the git command fails
+	 */
+	public List<File> getChangedFiles(File directory) throws IOException {
+		if (ref == null || ref.startsWith("-")) {
+			throw new IllegalArgumentException("Invalid git revision: " + ref);
+		}
+		List<String> command = new ArrayList<String>();
+		command.add(gitCommand);
+		command.add("diff");
+		if (staged) {
+			command.add("--cached");
+		}
+		command.add("--name-only");
+		command.add("--relative");
+		command.add("--diff-filter=ACMR");
+		command.add("-z");
+		command.add(ref);
+		command.add("--");
+		List<File> result = new LinkedList<File>();
+		parseFileNames(execute(command, directory), directory, result);
+		if (!staged) {
+			// new files are only reported by git diff once they are added
+			command.clear();
+			command.add(gitCommand);
+			command.add("ls-files");
+			command.add("--others");
+			command.add("--exclude-standard");
+			command.add("-z");
+			command.add("--");
+			parseFileNames(execute(command, directory), directory, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Adds the files of a NUL separated list of paths, as printed by the git
+	 * commands with the -z option.
+	 */
+	static void parseFileNames(String output, File directory, List<File> result) {
+		int start = 0;
+		int end = output.indexOf('\0');
+		while (end != -1) {
+			if (end > start) {
+				result.add(new File(directory, output.substring(start, end)));
+			}
+			start = end + 1;
+			end = output.indexOf('\0', start);
+		}
+		if (start < output.length()) {
+			result.add(new File(directory, output.substring(start)));
+		}
+	}
+
+	private String execute(List<String> command, File directory) throws IOException {
+		ProcessBuilder pb = new ProcessBuilder(command);
+		pb.directory(directory);
+		Process process = pb.start();
+		process.getOutputStream().close();
+		StreamConsumer errors = new StreamConsumer(process.getErrorStream());
+		errors.start();
+		String output;
+		try {
+			output = new String(readFully(process.getInputStream()), "UTF-8");
+			int exitCode = process.waitFor();
+			errors.join();
+			if (exitCode != 0) {
+				throw new IOException("The command " + command + " has failed in " + directory.getPath() + ": "
+						+ errors.getContent().trim());
+			}
+		} catch (InterruptedException e) {
+			process.destroy();
+			Thread.currentThread().interrupt();
+			throw new IOException("The command " + command + " has been interrupted");
+		}
+		return output;
+	}
+
+	private static byte[] readFully(InputStream is) throws IOException {
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read = is.read(buffer);
+			while (read != -1) {
+				baos.write(buffer, 0, read);
+				read = is.read(buffer);
+			}
+			return baos.toByteArray();
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Reads the error output of the git process, so that it never blocks
+	 * writing it.
+	 */
+	private static class StreamConsumer extends Thread {
+
+		private final InputStream is;
+
+		private String content = "";
+
+		public StreamConsumer(InputStream is) {
+			this.is = is;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				content = new String(readFully(is), "UTF-8");
+			} catch (IOException e) {
+				content = e.getMessage();
+			}
+		}
+
+		public String getContent() {
+			return content;
+		}
+	}
+}
@@ -0,0 +1,311 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+
+package org.walkmod.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Persisted state of the files processed by a chain in a previous execution:
+ * path, size, last modification time and content hash. It is used by the
+ * incremental mode to skip the files that have not changed since then. The
+ * manifest also stores a hash of the chain configuration, and it is discarded
+ * when the configuration changes.
+ *
+ * The manifest file is a text file with a header line with the configuration
+ * hash, and a line per file with the path, size, modification time and
+ * content hash separated by tabs.
+ */
+public class FileManifest {
+
+	private static final String HEADER = "#walkmod-manifest ";
+
+	private static final char SEPARATOR = '\t';
+
+	private static final Log LOG = LogFactory.getLog(FileManifest.class);
+
+	private final File manifestFile;
+
+	private final String configurationHash;
+
+	private final Map<String, Entry> entries;
+
+	private final Set<String> seen = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private FileManifest(File manifestFile, String configurationHash, Map<String, Entry> entries) {
+		this.manifestFile = manifestFile;
+		this.configurationHash = configurationHash;
+		this.entries = entries;
+	}
+
+	/**
+	 * Loads a manifest. If the file does not exist, cannot be read, or was
+	 * created with another configuration, the manifest starts empty, so all the
+	 * files are considered as changed.
+	 *
+	 * @param manifestFile
+	 *            file where the manifest is stored
+	 * @param configurationHash
+	 *            hash of the current chain configuration
+	 * @return the loaded manifest
+	 */
+	public static FileManifest load(File manifestFile, String configurationHash) {
+		Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+		if (manifestFile.isFile()) {
+			try {
+				BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifestFile),
+						"UTF-8"));
+				try {
+					String line = reader.readLine();
+					if (line != null && line.equals(HEADER + configurationHash)) {
+						line = reader.readLine();
+						while (line != null) {
+							Entry entry = Entry.parse(line);
+							if (entry != null) {
+								entries.put(entry.path, entry);
+							}
+							line = reader.readLine();
+						}
+					} else {
+						LOG.debug("The configuration has changed. Discarding " + manifestFile.getPath());
+					}
+				} finally {
+					reader.close();
+				}
+			} catch (IOException e) {
+				LOG.warn("Error reading " + manifestFile.getPath() + ". All the files will be processed", e);
+				entries.clear();
+			}
+		}
+		return new FileManifest(manifestFile, configurationHash, entries);
+	}
+
+	public File getManifestFile() {
+		return manifestFile;
+	}
+
+	/**
+	 * Checks if a file is the same than in the previous execution. The size and
+	 * modification time are compared first, and the content hash is only
+	 * computed when the size is the same but the modification time differs.
+	 * The file is registered to be saved in the manifest.
+	 *
+	 * @param file
+	 *            file to check
+	 * @return true if the file has not changed
+	 */
+	public boolean isUnchanged(File file) {
+		String path = file.getAbsolutePath();
+		seen.add(path);
+		Entry previous;
+		synchronized (entries) {
+			previous = entries.get(path);
+		}
+		if (previous == null || previous.size != file.length()) {
+			return false;
+		}
+		if (previous.lastModified == file.lastModified()) {
+			return true;
+		}
+		try {
+			return previous.hash.equals(hash(file));
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Stores the current state of the checked files. The entries of the files
+	 * that no longer exist are removed, and the entries of the other files are
+	 * kept.
+	 *
+	 * @param pending
+	 *            files that must be processed again in the next execution
+	 *            (e.g. those with changes that have not been applied).
+	 * @throws IOException
+	 *             if the manifest cannot be written
+	 */
+	public void save(Collection<File> pending) throws IOException {
+		Set<String> excluded = new HashSet<String>();
+		if (pending != null) {
+			for (File file : pending) {
+				excluded.add(file.getAbsolutePath());
+			}
+		}
+		synchronized (entries) {
+			for (String path : seen) {
+				File file = new File(path);
+				if (excluded.contains(path) || !file.isFile()) {
+					entries.remove(path);
+				} else {
+					Entry previous = entries.get(path);
+					long size = file.length();
+					long lastModified = file.lastModified();
+					if (previous == null || previous.size != size || previous.lastModified != lastModified) {
+						entries.put(path, new Entry(path, size, lastModified, hash(file)));
+					}
+				}
+			}
+			Iterator<String> it = entries.keySet().iterator();
+			while (it.hasNext()) {
+				if (!new File(it.next()).exists()) {
+					it.remove();
+				}
+			}
+			File parent = manifestFile.getParentFile();
+			if (parent != null && !parent.exists()) {
+				parent.mkdirs();
+			}
+			Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(manifestFile), "UTF-8"));
+			try {
+				writer.write(HEADER + configurationHash);
+				writer.write('\n');
+				for (Entry entry : entries.values()) {
+					entry.write(writer);
+				}
+			} finally {
+				writer.close();
+			}
+		}
+		seen.clear();
+	}
+
+	/**
+	 * @return the MD5 hash of the file contents, in hexadecimal
+	 */
+	public static String hash(File file) throws IOException {
+		InputStream is = new FileInputStream(file);
+		try {
+			MessageDigest digest = createDigest();
+			byte[] buffer = new byte[8192];
+			int read = is.read(buffer);
+			while (read != -1) {
+				digest.update(buffer, 0, read);
+				read = is.read(buffer);
+			}
+			return toHex(digest.digest());
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * @return the MD5 hash of the contents of a file, already read, in
+	 *         hexadecimal
+	 */
+	public static String hash(byte[] content) {
+		return toHex(createDigest().digest(content));
+	}
+
+	/**
+	 * @return the MD5 hash of a text, in hexadecimal
+	 */
+	public static String hash(String text) {
+		MessageDigest digest = createDigest();
+		try {
+			return toHex(digest.digest(text.getBytes("UTF-8")));
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (int i = 0; i < bytes.length; i++) {
+			String aux = Integer.toHexString(bytes[i] & 0xff);
+			if (aux.length() == 1) {
+				sb.append('0');
+			}
+			sb.append(aux);
+		}
+		return sb.toString();
+	}
+
+	private static class Entry {
+
+		private final String path;
+
+		private final long size;
+
+		private final long lastModified;
+
+		private final String hash;
+
+		public Entry(String path, long size, long lastModified, String hash) {
+			this.path = path;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.hash = hash;
+		}
+
+		public static Entry parse(String line) {
+			// the path is the only field that can contain the separator
+			int hashPos = line.lastIndexOf(SEPARATOR);
+			int timePos = hashPos > 0 ? line.lastIndexOf(SEPARATOR, hashPos - 1) : -1;
+			int sizePos = timePos > 0 ? line.lastIndexOf(SEPARATOR, timePos - 1) : -1;
+			if (sizePos <= 0) {
+				return null;
+			}
+			try {
+				return new Entry(line.substring(0, sizePos), Long.parseLong(line.substring(sizePos + 1, timePos)),
+						Long.parseLong(line.substring(timePos + 1, hashPos)), line.substring(hashPos + 1));
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+
+		public void write(Writer writer) throws IOException {
+			writer.write(path);
+			writer.write(SEPARATOR);
+			writer.write(Long.toString(size));
+			writer.write(SEPARATOR);
+			writer.write(Long.toString(lastModified));
+			writer.write(SEPARATOR);
+			writer.write(hash);
+			writer.write('\n');
+		}
+	}
+}
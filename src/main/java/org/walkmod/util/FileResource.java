@@ -17,12 +17,18 @@
 package org.walkmod.util;
 
 import java.io.File;
+import java.io.FileFilter;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.filefilter.AbstractFileFilter;
+import org.apache.commons.io.filefilter.FileFilterUtils;
 import org.apache.commons.io.filefilter.IOFileFilter;
 import org.apache.commons.io.filefilter.SuffixFileFilter;
 import org.apache.commons.io.filefilter.TrueFileFilter;
@@ -38,12 +44,23 @@ public class FileResource implements Resource<File> {
 
 	private String[] excludes;
 
+	private volatile PathFilter pathFilter;
+
+	private FileManifest manifest;
+
+	private Collection<File> selectedFiles;
+
+	private int shardIndex = 1;
+
+	private int shardCount = 1;
+
 	public File getFile() {
 		return file;
 	}
 
 	public void setFile(File file) throws Exception {
 		this.file = file.getCanonicalFile();
+		pathFilter = null;
 	}
 
 	public void setPath(String path) throws Exception {
@@ -67,121 +84,192 @@ public class FileResource implements Resource<File> {
 		return suffixes;
 	}
 
-	private boolean matches(String fileName, String filter) {
+	/**
+	 * @return the include/exclude filter of the resource files, compiled for
+	 *         the current file, includes and excludes.
+	 */
+	public PathFilter getPathFilter() {
+		PathFilter result = pathFilter;
+		if (result == null) {
+			String fileNormalized = FilenameUtils.normalize(file.getAbsolutePath(), true);
+			result = PathFilter.compile(fileNormalized, includes, excludes);
+			pathFilter = result;
+		}
+		return result;
+	}
 
-		return filter.startsWith(fileName) || FilenameUtils.wildcardMatch(fileName, filter)
-				|| fileName.startsWith(filter);
+	public FileManifest getManifest() {
+		return manifest;
+	}
 
+	/**
+	 * Sets the manifest of a previous execution. The files that have not
+	 * changed since then are skipped.
+	 *
+	 * @param manifest
+	 *            manifest of the previous execution. Null to process all the
+	 *            files.
+	 */
+	public void setManifest(FileManifest manifest) {
+		this.manifest = manifest;
 	}
 
-	@Override
-	public Iterator<File> iterator() {
-		String fileNormalized = FilenameUtils.normalize(file.getAbsolutePath(), true);
-		if (includes != null) {
-			for (int i = 0; i < includes.length; i++) {
+	public Collection<File> getSelectedFiles() {
+		return selectedFiles;
+	}
 
-				if (!includes[i].startsWith(fileNormalized)) {
+	/**
+	 * Restricts the resource to a set of files (e.g. those changed in a
+	 * version control system) instead of all the files of the directory. The
+	 * files outside the resource directory are ignored, and the extensions,
+	 * includes, excludes and manifest still apply.
+	 *
+	 * @param selectedFiles
+	 *            files to process. Null to process all the directory files.
+	 */
+	public void setSelectedFiles(Collection<File> selectedFiles) {
+		this.selectedFiles = selectedFiles;
+	}
 
-					includes[i] = fileNormalized + "/" + includes[i];
+	public int getShardIndex() {
+		return shardIndex;
+	}
 
-				}
-				if (includes[i].endsWith("**")) {
-					includes[i] = includes[i].substring(0, includes[i].length() - 3);
-				}
-			}
+	public int getShardCount() {
+		return shardCount;
+	}
+
+	/**
+	 * Keeps only the files of one shard, so that several processes can share
+	 * the files without any coordination. The shard of a file is decided by
+	 * the hash of its path relative to the resource directory, so it is the
+	 * same in any checkout of the sources.
+	 *
+	 * @param shardIndex
+	 *            selected shard, from 1 to shardCount
+	 * @param shardCount
+	 *            number of shards
+	 */
+	public void setShard(int shardIndex, int shardCount) {
+		if (shardCount < 1 || shardIndex < 1 || shardIndex > shardCount) {
+			throw new IllegalArgumentException("Invalid shard " + shardIndex + "/" + shardCount);
+		}
+		this.shardIndex = shardIndex;
+		this.shardCount = shardCount;
+	}
+
+	private boolean isInShard(File candidate) {
+		if (shardCount == 1) {
+			return true;
 		}
-		if (excludes != null) {
-			for (int i = 0; i < excludes.length; i++) {
+		String path = FilenameUtils.normalize(candidate.getAbsolutePath(), true);
+		String root = FilenameUtils.normalize(file.getAbsolutePath(), true);
+		String relative;
+		if (path.startsWith(root + "/")) {
+			relative = path.substring(root.length() + 1);
+		} else {
+			relative = candidate.getName();
+		}
+		CRC32 crc = new CRC32();
+		try {
+			crc.update(relative.getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		return crc.getValue() % shardCount == shardIndex - 1;
+	}
 
-				if (!excludes[i].startsWith(fileNormalized)) {
-					excludes[i] = fileNormalized + "/" + excludes[i];
+	/**
+	 * @return if the directory traversal of {@link #iterator()} would reach
+	 *         and select the given file, without listing the directories.
+	 */
+	private boolean isReachable(String path, PathFilter filter, String root) {
+		if (filter.isAcceptAll()) {
+			return true;
+		}
+		int separator = path.indexOf('/', root.length() + 1);
+		while (separator != -1) {
+			if (!filter.acceptDirectory(path.substring(0, separator))) {
+				return false;
+			}
+			separator = path.indexOf('/', separator + 1);
+		}
+		return extensions != null || filter.acceptDirectory(path);
+	}
 
+	private Iterator<File> selectedFilesIterator() {
+		PathFilter filter = getPathFilter();
+		String[] suffixes = extensions != null ? toSuffixes(extensions) : null;
+		String root = FilenameUtils.normalize(file.getAbsolutePath(), true);
+		Collection<File> result = new LinkedList<File>();
+		for (File selected : selectedFiles) {
+			String path = FilenameUtils.normalize(selected.getAbsolutePath(), true);
+			boolean accept = path.startsWith(root + "/") && selected.isFile() && isReachable(path, filter, root);
+			if (accept && suffixes != null) {
+				accept = false;
+				for (int i = 0; i < suffixes.length && !accept; i++) {
+					accept = path.endsWith(suffixes[i]);
 				}
-				if (excludes[i].endsWith("**")) {
-					excludes[i] = excludes[i].substring(0, excludes[i].length() - 3);
-				}
+			}
+			if (accept && isInShard(selected) && (manifest == null || !manifest.isUnchanged(selected))) {
+				result.add(selected);
 			}
 		}
+		return result.iterator();
+	}
 
+	@Override
+	public Iterator<File> iterator() {
+		if (selectedFiles != null && file.isDirectory()) {
+			return selectedFilesIterator();
+		}
 		if (file.isDirectory()) {
-
-			IOFileFilter filter = null;
-
-			IOFileFilter directoryFilter = TrueFileFilter.INSTANCE;
-			if (excludes != null || includes != null) {
-
-				directoryFilter = new IOFileFilter() {
+			final PathFilter filter = getPathFilter();
+			IOFileFilter suffixFilter;
+			if (extensions == null) {
+				suffixFilter = TrueFileFilter.INSTANCE;
+			} else {
+				suffixFilter = new SuffixFileFilter(toSuffixes(extensions));
+			}
+			IOFileFilter selectionFilter = suffixFilter;
+			if (shardCount > 1) {
+				selectionFilter = FileFilterUtils.and(selectionFilter, new AbstractFileFilter() {
 
 					@Override
-					public boolean accept(File dir, String name) {
-
-						boolean excludesEval = false;
-						boolean includesEval = false;
-						String aux = FilenameUtils.normalize(name, true);
-						if (excludes != null) {
-							for (int i = 0; i < excludes.length && !excludesEval; i++) {
-								excludesEval = (FilenameUtils.wildcardMatch(aux, excludes[i]) || dir.getAbsolutePath()
-										.startsWith(excludes[i]));
-							}
-						}
-						if (includes != null) {
-							for (int i = 0; i < includes.length && !includesEval; i++) {
-								includesEval = matches(aux, includes[i]);
-							}
-						} else {
-							includesEval = true;
-						}
-						return (includesEval && !excludesEval) || (includes == null && excludes == null);
-
+					public boolean accept(File file) {
+						return isInShard(file);
 					}
+				});
+			}
+			if (manifest != null) {
+				selectionFilter = FileFilterUtils.and(selectionFilter, new AbstractFileFilter() {
 
 					@Override
 					public boolean accept(File file) {
-						boolean excludesEval = false;
-						boolean includesEval = false;
-
-						String aux = FilenameUtils.normalize(file.getAbsolutePath(), true);
-						if (excludes != null) {
-
-							for (int i = 0; i < excludes.length && !excludesEval; i++) {
-								excludesEval = (FilenameUtils.wildcardMatch(aux, excludes[i]) || file.getParentFile()
-										.getAbsolutePath().startsWith(excludes[i]));
-							}
-						}
-						if (includes != null) {
-							for (int i = 0; i < includes.length && !includesEval; i++) {
-								includesEval = matches(aux, includes[i]);
-							}
-						} else {
-							includesEval = true;
-						}
-						boolean result = (includesEval && !excludesEval) || (includes == null && excludes == null);
-
-						return result;
-
+						return !manifest.isUnchanged(file);
 					}
-				};
-				if (extensions == null) {
-					filter = directoryFilter;
+				});
+			}
+			final IOFileFilter fileFilter = selectionFilter;
+			if (filter.isAcceptAll()) {
+				return new FileTreeIterator(file, fileFilter, TrueFileFilter.INSTANCE);
+			}
+			IOFileFilter directoryFilter = new AbstractFileFilter() {
 
-				} else {
-					String[] suffixes = toSuffixes(extensions);
-					filter = new SuffixFileFilter(suffixes);
-				}
-
-			} else {
-				if (extensions == null) {
-					filter = TrueFileFilter.INSTANCE;
-				} else {
-					String[] suffixes = toSuffixes(extensions);
-					filter = new SuffixFileFilter(suffixes);
+				@Override
+				public boolean accept(File dir) {
+					return filter.acceptDirectory(FilenameUtils.normalize(dir.getAbsolutePath(), true));
 				}
+			};
+			if (extensions != null) {
+				// the includes and excludes only prune the directories
+				return new FileTreeIterator(file, fileFilter, directoryFilter);
 			}
-
-			return FileUtils.listFiles(file, filter, directoryFilter).iterator();
+			IOFileFilter pathFileFilter = FileFilterUtils.and(directoryFilter, fileFilter);
+			return new FileTreeIterator(file, pathFileFilter, directoryFilter);
 		}
 		Collection<File> aux = new LinkedList<File>();
-		if (extensions == null) {
+		if (extensions == null && isInShard(file) && (manifest == null || !manifest.isUnchanged(file))) {
 			aux.add(file);
 		}
 		return aux.iterator();
@@ -203,18 +291,90 @@ public class FileResource implements Resource<File> {
 		throw new IllegalArgumentException();
 	}
 
+	/**
+	 * Depth-first iterator over the files of a directory tree. Each directory
+	 * is listed when the iteration reaches it, so the first files are
+	 * available before the whole tree is scanned, and the directories rejected
+	 * by the directory filter are never listed. The files are returned in the
+	 * same order than {@link org.apache.commons.io.FileUtils#listFiles}.
+	 */
+	private static class FileTreeIterator implements Iterator<File> {
+
+		private final FileFilter filter;
+
+		private final LinkedList<Iterator<File>> pending = new LinkedList<Iterator<File>>();
+
+		private File next;
+
+		public FileTreeIterator(File root, final IOFileFilter fileFilter, final IOFileFilter directoryFilter) {
+			this.filter = new FileFilter() {
+
+				@Override
+				public boolean accept(File file) {
+					if (file.isDirectory()) {
+						return directoryFilter.accept(file);
+					}
+					return fileFilter.accept(file);
+				}
+			};
+			push(root);
+		}
+
+		private void push(File directory) {
+			File[] found = directory.listFiles(filter);
+			if (found != null && found.length > 0) {
+				pending.addFirst(Arrays.asList(found).iterator());
+			}
+		}
+
+		private File findNext() {
+			while (!pending.isEmpty()) {
+				Iterator<File> current = pending.getFirst();
+				if (!current.hasNext()) {
+					pending.removeFirst();
+				} else {
+					File candidate = current.next();
+					if (candidate.isDirectory()) {
+						push(candidate);
+					} else {
+						return candidate;
+					}
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next == null) {
+				next = findNext();
+			}
+			return next != null;
+		}
+
+		@Override
+		public File next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			File result = next;
+			next = null;
+			return result;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
 	public String[] getIncludes() {
 		return includes;
 	}
 
 	public void setIncludes(String[] includes) {
-		if (includes != null && System.getProperty("os.name").toLowerCase().contains("windows")) {
-			for (int i = 0; i < includes.length; i++) {
-				includes[i] = FilenameUtils.normalize(includes[i], true);
-			}
-		}
 		this.includes = includes;
-
+		pathFilter = null;
 	}
 
 	public String[] getExcludes() {
@@ -222,11 +382,7 @@ public class FileResource implements Resource<File> {
 	}
 
 	public void setExcludes(String[] excludes) {
-		if (excludes != null && System.getProperty("os.name").toLowerCase().contains("windows")) {
-			for (int i = 0; i < excludes.length; i++) {
-				excludes[i] = FilenameUtils.normalize(excludes[i], true);
-			}
-		}
 		this.excludes = excludes;
+		pathFilter = null;
 	}
 }
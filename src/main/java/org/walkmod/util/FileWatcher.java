@@ -0,0 +1,126 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+
+package org.walkmod.util;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Detects the files that are created, modified or deleted in a set of
+ * directories by comparing their size and last modification time between two
+ * consecutive scans. The hidden directories (e.g. .git or .walkmod) are not
+ * scanned.
+ */
+public class FileWatcher {
+
+	private final Collection<File> roots;
+
+	private Map<String, Stamp> snapshot = null;
+
+	/**
+	 * @param roots
+	 *            files or directories to watch
+	 */
+	public FileWatcher(Collection<File> roots) {
+		this.roots = new LinkedList<File>();
+		for (File root : roots) {
+			this.roots.add(root.getAbsoluteFile());
+		}
+	}
+
+	public Collection<File> getRoots() {
+		return roots;
+	}
+
+	/**
+	 * Scans the watched directories and keeps their state for the next scan.
+	 *
+	 * @return the files that have been created, modified or deleted since the
+	 *         previous scan. The first scan returns an empty set.
+	 */
+	public Set<File> scan() {
+		Map<String, Stamp> current = new HashMap<String, Stamp>();
+		for (File root : roots) {
+			if (root.isDirectory()) {
+				scan(root, current);
+			} else if (root.isFile()) {
+				current.put(root.getPath(), new Stamp(root));
+			}
+		}
+		Set<File> changes = new LinkedHashSet<File>();
+		if (snapshot != null) {
+			for (Map.Entry<String, Stamp> entry : current.entrySet()) {
+				if (!entry.getValue().equals(snapshot.get(entry.getKey()))) {
+					changes.add(new File(entry.getKey()));
+				}
+			}
+			for (String path : snapshot.keySet()) {
+				if (!current.containsKey(path)) {
+					changes.add(new File(path));
+				}
+			}
+		}
+		snapshot = current;
+		return changes;
+	}
+
+	private void scan(File directory, Map<String, Stamp> current) {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (int i = 0; i < files.length; i++) {
+				if (files[i].isDirectory()) {
+					if (!files[i].getName().startsWith(".")) {
+						scan(files[i], current);
+					}
+				} else {
+					current.put(files[i].getPath(), new Stamp(files[i]));
+				}
+			}
+		}
+	}
+
+	private static class Stamp {
+
+		private final long length;
+
+		private final long lastModified;
+
+		public Stamp(File file) {
+			this.length = file.length();
+			this.lastModified = file.lastModified();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Stamp)) {
+				return false;
+			}
+			Stamp other = (Stamp) o;
+			return length == other.length && lastModified == other.lastModified;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (length ^ lastModified);
+		}
+	}
+}
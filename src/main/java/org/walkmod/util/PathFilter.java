@@ -0,0 +1,299 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+
+package org.walkmod.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Stack;
+
+/**
+ * Immutable include/exclude filter of normalized paths (with '/' as
+ * separator). The patterns are compiled once: the relative ones are resolved
+ * against a base directory, a trailing <code>/**</code> is reduced to its
+ * directory, and the wildcards (<code>*</code> and <code>?</code>) are split in
+ * tokens, so that each test does not need to parse them again.
+ *
+ * The filter keeps the rules of each of its users: {@link #accept(String)} is
+ * the rule of the file writers, {@link #acceptDirectory(String)} the rule of
+ * the directory readers, and the filters created with
+ * {@link #compileWildcards(String[], String[])} only evaluate the wildcards.
+ */
+public class PathFilter {
+
+	private static final PathFilter ACCEPT_ALL = new PathFilter(null, null, true);
+
+	private final Pattern[] includes;
+
+	private final Pattern[] excludes;
+
+	private final boolean containment;
+
+	private PathFilter(Pattern[] includes, Pattern[] excludes, boolean containment) {
+		this.includes = includes;
+		this.excludes = excludes;
+		this.containment = containment;
+	}
+
+	/**
+	 * Compiles the include and exclude patterns. The given arrays are not
+	 * modified.
+	 *
+	 * @param baseDirectory
+	 *            normalized directory that resolves the relative patterns. If
+	 *            it is null, the patterns are used as they are.
+	 * @param includes
+	 *            included patterns. Null to include all the paths.
+	 * @param excludes
+	 *            excluded patterns. Null to exclude none.
+	 * @return the compiled filter
+	 */
+	public static PathFilter compile(String baseDirectory, String[] includes, String[] excludes) {
+		if (includes == null && excludes == null) {
+			return ACCEPT_ALL;
+		}
+		return new PathFilter(compile(baseDirectory, includes), compile(baseDirectory, excludes), true);
+	}
+
+	/**
+	 * Compiles patterns that are matched as they are against the whole path,
+	 * without resolving them or testing the contained paths.
+	 *
+	 * @param includes
+	 *            included patterns. Null to include all the paths.
+	 * @param excludes
+	 *            excluded patterns. Null to exclude none.
+	 * @return the compiled filter
+	 */
+	public static PathFilter compileWildcards(String[] includes, String[] excludes) {
+		if (includes == null && excludes == null) {
+			return ACCEPT_ALL;
+		}
+		return new PathFilter(compileWildcards(includes), compileWildcards(excludes), false);
+	}
+
+	private static Pattern[] compile(String baseDirectory, String[] patterns) {
+		if (patterns == null) {
+			return null;
+		}
+		Pattern[] result = new Pattern[patterns.length];
+		for (int i = 0; i < patterns.length; i++) {
+			String pattern = patterns[i];
+			if (File.separatorChar == '\\') {
+				pattern = pattern.replace('\\', '/');
+			}
+			if (baseDirectory != null && !pattern.startsWith(baseDirectory)) {
+				pattern = baseDirectory + "/" + pattern;
+			}
+			if (pattern.endsWith("/**")) {
+				pattern = pattern.substring(0, pattern.length() - 3);
+			}
+			result[i] = new Pattern(pattern);
+		}
+		return result;
+	}
+
+	private static Pattern[] compileWildcards(String[] patterns) {
+		if (patterns == null) {
+			return null;
+		}
+		Pattern[] result = new Pattern[patterns.length];
+		for (int i = 0; i < patterns.length; i++) {
+			result[i] = new Pattern(patterns[i]);
+		}
+		return result;
+	}
+
+	public boolean isAcceptAll() {
+		return includes == null && excludes == null;
+	}
+
+	/**
+	 * Rule of the file writers: a path is accepted if it matches, or is
+	 * contained by, some include (or there are no includes) and it does not
+	 * match, and is not contained by, any exclude. For the filters of
+	 * {@link #compileWildcards(String[], String[])}, only the matches count.
+	 * The writers did not check the containment before this filter (see
+	 * {@link org.walkmod.writers.AbstractFileWriter#isValid(java.io.File)}).
+	 *
+	 * @param path
+	 *            normalized path of a file
+	 * @return if the file must be processed
+	 */
+	public boolean accept(String path) {
+		if (excludes != null) {
+			for (int i = 0; i < excludes.length; i++) {
+				if (excludes[i].matches(path) || (containment && excludes[i].contains(path))) {
+					return false;
+				}
+			}
+		}
+		if (includes == null) {
+			return true;
+		}
+		for (int i = 0; i < includes.length; i++) {
+			if (includes[i].matches(path) || (containment && includes[i].contains(path))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Rule of the directory readers, which prunes the directories that can not
+	 * contain included files. A path is excluded if it matches some exclude or
+	 * its parent directory starts with it, and it is included if it matches
+	 * some include, starts with it, or is a prefix of it (or there are no
+	 * includes). The readers apply it to the directories and, when they have
+	 * no extensions, also to the files.
+	 *
+	 * @param path
+	 *            normalized path of a directory or file
+	 * @return if the directory must be traversed
+	 */
+	public boolean acceptDirectory(String path) {
+		if (excludes != null) {
+			int separator = path.lastIndexOf('/');
+			String parent = separator > 0 ? path.substring(0, separator) : "";
+			for (int i = 0; i < excludes.length; i++) {
+				if (excludes[i].matches(path) || parent.startsWith(excludes[i].text)) {
+					return false;
+				}
+			}
+		}
+		if (includes == null) {
+			return true;
+		}
+		for (int i = 0; i < includes.length; i++) {
+			Pattern include = includes[i];
+			if (include.text.startsWith(path) || include.matches(path) || path.startsWith(include.text)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Compiled wildcard pattern. The matching rules are the same than
+	 * {@link org.apache.commons.io.FilenameUtils#wildcardMatch(String, String)}
+	 * : <code>*</code> matches any sequence of characters, including '/', and
+	 * <code>?</code> matches a single character.
+	 */
+	private static class Pattern {
+
+		private final String text;
+
+		private final String[] tokens;
+
+		public Pattern(String text) {
+			this.text = text;
+			if (text.indexOf('*') == -1 && text.indexOf('?') == -1) {
+				tokens = null;
+			} else {
+				tokens = splitOnTokens(text);
+			}
+		}
+
+		private static String[] splitOnTokens(String text) {
+			List<String> list = new ArrayList<String>();
+			StringBuilder buffer = new StringBuilder();
+			char[] array = text.toCharArray();
+			for (int i = 0; i < array.length; i++) {
+				if (array[i] == '?' || array[i] == '*') {
+					if (buffer.length() != 0) {
+						list.add(buffer.toString());
+						buffer.setLength(0);
+					}
+					if (array[i] == '?') {
+						list.add("?");
+					} else if (list.isEmpty() || (i > 0 && !list.get(list.size() - 1).equals("*"))) {
+						list.add("*");
+					}
+				} else {
+					buffer.append(array[i]);
+				}
+			}
+			if (buffer.length() != 0) {
+				list.add(buffer.toString());
+			}
+			return list.toArray(new String[list.size()]);
+		}
+
+		/**
+		 * @return if the path is the pattern or is inside it. Only for patterns
+		 *         without wildcards.
+		 */
+		public boolean contains(String path) {
+			if (tokens != null || !path.startsWith(text)) {
+				return false;
+			}
+			return path.length() == text.length() || path.charAt(text.length()) == '/' || text.endsWith("/");
+		}
+
+		public boolean matches(String path) {
+			if (tokens == null) {
+				return text.equals(path);
+			}
+			boolean anyChars = false;
+			int textIdx = 0;
+			int tokenIdx = 0;
+			Stack<int[]> backtrack = new Stack<int[]>();
+			do {
+				if (backtrack.size() > 0) {
+					int[] array = backtrack.pop();
+					tokenIdx = array[0];
+					textIdx = array[1];
+					anyChars = true;
+				}
+				while (tokenIdx < tokens.length) {
+					if (tokens[tokenIdx].equals("?")) {
+						textIdx++;
+						if (textIdx > path.length()) {
+							break;
+						}
+						anyChars = false;
+					} else if (tokens[tokenIdx].equals("*")) {
+						anyChars = true;
+						if (tokenIdx == tokens.length - 1) {
+							textIdx = path.length();
+						}
+					} else {
+						if (anyChars) {
+							textIdx = path.indexOf(tokens[tokenIdx], textIdx);
+							if (textIdx == -1) {
+								break;
+							}
+							int repeat = path.indexOf(tokens[tokenIdx], textIdx + 1);
+							if (repeat >= 0) {
+								backtrack.push(new int[] { tokenIdx, repeat });
+							}
+						} else if (!path.regionMatches(textIdx, tokens[tokenIdx], 0, tokens[tokenIdx].length())) {
+							break;
+						}
+						textIdx += tokens[tokenIdx].length();
+						anyChars = false;
+					}
+					tokenIdx++;
+				}
+				if (tokenIdx == tokens.length && textIdx == path.length()) {
+					return true;
+				}
+			} while (backtrack.size() > 0);
+			return false;
+		}
+	}
+}
@@ -0,0 +1,359 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+
+package org.walkmod.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.walkmod.Resource;
+
+/**
+ * Resource that reads in advance the contents of the next files of another
+ * resource (e.g. a {@link FileResource}) while the current one is processed.
+ * The files are read by a small pool of threads and their contents are kept
+ * until they are taken with {@link #takeContent(File)}, so that the I/O of the
+ * next files overlaps with the parsing of the current one.
+ *
+ * The buffer is bounded by the number of files read in advance and by the
+ * total size of their contents. The files that do not fit are not prefetched,
+ * and the contents that are not taken are discarded when the iteration has
+ * advanced the same number of files. The elements that are not files are
+ * returned as they are.
+ *
+ * @param <T>
+ *            element type
+ */
+public class PrefetchingResource<T> implements Resource<T> {
+
+	/**
+	 * Default bound of the total size, in bytes, of the prefetched contents.
+	 */
+	public static final long DEFAULT_MAX_SIZE = 16 * 1024 * 1024;
+
+	private static final int THREADS = 2;
+
+	private static final Log LOG = LogFactory.getLog(PrefetchingResource.class);
+
+	private final Resource<T> resource;
+
+	private final int depth;
+
+	private final long maxSize;
+
+	private final AtomicLong size = new AtomicLong();
+
+	private final ConcurrentHashMap<String, Slot> slots = new ConcurrentHashMap<String, Slot>();
+
+	private final Set<ExecutorService> executors = Collections
+			.newSetFromMap(new ConcurrentHashMap<ExecutorService, Boolean>());
+
+	/**
+	 * @param resource
+	 *            resource whose files are prefetched
+	 * @param depth
+	 *            number of files that are read in advance
+	 * @param maxSize
+	 *            maximum total size, in bytes, of the prefetched contents
+	 */
+	public PrefetchingResource(Resource<T> resource, int depth, long maxSize) {
+		if (depth < 1) {
+			throw new IllegalArgumentException("The number of prefetched files must be positive: " + depth);
+		}
+		this.resource = resource;
+		this.depth = depth;
+		this.maxSize = maxSize;
+	}
+
+	public Resource<T> getResource() {
+		return resource;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		for (String path : slots.keySet()) {
+			discard(path);
+		}
+		return new PrefetchIterator(resource.iterator());
+	}
+
+	/**
+	 * Stops the threads of the iterations that have not reached the end of
+	 * the files (e.g. because the walk has failed) and releases all the
+	 * prefetched contents.
+	 */
+	public void close() {
+		for (ExecutorService executor : executors) {
+			executor.shutdownNow();
+		}
+		executors.clear();
+		for (String path : slots.keySet()) {
+			discard(path);
+		}
+	}
+
+	@Override
+	public String getNearestNamespace(Object element, String regexSeparator) {
+		return resource.getNearestNamespace(element, regexSeparator);
+	}
+
+	@Override
+	public String getOwnerNamespace(Object element, String regexSeparator) {
+		return resource.getOwnerNamespace(element, regexSeparator);
+	}
+
+	/**
+	 * Returns the prefetched contents of a file and removes them from the
+	 * buffer. If the file is being read, it waits until it finishes.
+	 *
+	 * @param file
+	 *            file returned by an iterator of this resource
+	 * @return the file contents, or null if they have not been prefetched
+	 */
+	public byte[] takeContent(File file) {
+		Slot slot = slots.remove(file.getAbsolutePath());
+		if (slot == null) {
+			return null;
+		}
+		byte[] content;
+		try {
+			content = slot.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			slot.discard();
+			return null;
+		}
+		if (content != null) {
+			size.addAndGet(-content.length);
+		}
+		return content;
+	}
+
+	private void discard(String path) {
+		Slot slot = slots.remove(path);
+		if (slot != null) {
+			slot.discard();
+		}
+	}
+
+	private boolean reserve(long length) {
+		long current = size.get();
+		while (current + length <= maxSize) {
+			if (size.compareAndSet(current, current + length)) {
+				return true;
+			}
+			current = size.get();
+		}
+		return false;
+	}
+
+	/**
+	 * Reads the contents of a file that has the given length. If the file has
+	 * changed its length while it is read, it fails, so that the file is not
+	 * prefetched and the parser reads it.
+	 */
+	static byte[] read(File file, int length) throws IOException {
+		InputStream is = new FileInputStream(file);
+		try {
+			byte[] content = new byte[length];
+			int offset = 0;
+			while (offset < length) {
+				int read = is.read(content, offset, length - offset);
+				if (read == -1) {
+					throw new IOException("The file " + file.getPath() + " has been truncated");
+				}
+				offset += read;
+			}
+			if (is.read() != -1) {
+				throw new IOException("The file " + file.getPath() + " has grown");
+			}
+			return content;
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Contents of a file that is being read or has been read in advance.
+	 */
+	private class Slot implements Runnable {
+
+		private final File file;
+
+		private byte[] content;
+
+		private boolean loaded = false;
+
+		private boolean discarded = false;
+
+		public Slot(File file) {
+			this.file = file;
+		}
+
+		@Override
+		public void run() {
+			byte[] result = null;
+			long length = file.length();
+			if (length > 0 && length <= Integer.MAX_VALUE && reserve(length)) {
+				try {
+					result = read(file, (int) length);
+				} catch (IOException e) {
+					LOG.debug("The file " + file.getPath() + " cannot be prefetched: " + e.getMessage());
+					size.addAndGet(-length);
+				}
+			}
+			synchronized (this) {
+				if (discarded) {
+					if (result != null) {
+						size.addAndGet(-length);
+					}
+				} else {
+					content = result;
+				}
+				loaded = true;
+				notifyAll();
+			}
+		}
+
+		public synchronized byte[] take() throws InterruptedException {
+			while (!loaded) {
+				wait();
+			}
+			byte[] result = content;
+			content = null;
+			return result;
+		}
+
+		/**
+		 * Releases the contents, or marks them to be released when the file
+		 * is read.
+		 */
+		public synchronized void discard() {
+			discarded = true;
+			if (content != null) {
+				size.addAndGet(-content.length);
+				content = null;
+			}
+		}
+	}
+
+	private class PrefetchIterator implements Iterator<T> {
+
+		private final Iterator<T> it;
+
+		private final LinkedList<T> ahead = new LinkedList<T>();
+
+		private final LinkedList<String> returned = new LinkedList<String>();
+
+		private ExecutorService executor;
+
+		public PrefetchIterator(Iterator<T> it) {
+			this.it = it;
+		}
+
+		private void fill() {
+			while (ahead.size() < depth && it.hasNext()) {
+				T element = it.next();
+				ahead.add(element);
+				if (element instanceof File) {
+					File file = (File) element;
+					Slot slot = new Slot(file);
+					if (slots.putIfAbsent(file.getAbsolutePath(), slot) == null) {
+						getExecutor().execute(slot);
+					}
+				}
+			}
+		}
+
+		private ExecutorService getExecutor() {
+			if (executor == null) {
+				executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "walkmod-prefetch");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+				executors.add(executor);
+			}
+			return executor;
+		}
+
+		@Override
+		public boolean hasNext() {
+			fill();
+			if (ahead.isEmpty()) {
+				finish();
+				return false;
+			}
+			return true;
+		}
+
+		@Override
+		public T next() {
+			fill();
+			if (ahead.isEmpty()) {
+				throw new NoSuchElementException();
+			}
+			T element = ahead.removeFirst();
+			if (element instanceof File) {
+				returned.add(((File) element).getAbsolutePath());
+				if (returned.size() > depth) {
+					discard(returned.removeFirst());
+				}
+			}
+			fill();
+			return element;
+		}
+
+		/**
+		 * The contents of the last returned files are kept until they are
+		 * taken or the next iteration starts.
+		 */
+		private void finish() {
+			if (executor != null) {
+				executor.shutdown();
+				executors.remove(executor);
+				executor = null;
+			}
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
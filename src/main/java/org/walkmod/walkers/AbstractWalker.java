@@ -16,17 +16,21 @@
 
 package org.walkmod.walkers;
 
+import java.io.File;
 import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.log4j.Logger;
 import org.walkmod.ChainWalker;
@@ -37,6 +41,7 @@ import org.walkmod.exceptions.WalkModException;
 import org.walkmod.merger.IdentificableNode;
 import org.walkmod.merger.MergeEngine;
 import org.walkmod.merger.Mergeable;
+import org.walkmod.writers.Summary;
 
 public abstract class AbstractWalker implements ChainWalker {
 
@@ -54,6 +59,8 @@ public abstract class AbstractWalker implements ChainWalker {
 
    private Set<Object> visitedElements;
 
+   private VisitedElementsScope visitedElementsScope = VisitedElementsScope.CHAIN;
+
    private Collection<VisitorMessage> visitorMessages;
 
    private static Logger log = Logger.getLogger(AbstractWalker.class);
@@ -62,14 +69,30 @@ public abstract class AbstractWalker implements ChainWalker {
 
    private List<String> constraintProviders = null;
 
+   private DispatchTable visitorDispatch = new DispatchTable("visit");
+
+   private DispatchTable writerDispatch = new DispatchTable("write", false);
+
+   private volatile Map<Class<?>, Method> acceptMethodsByType = null;
+
+   private ConcurrentMap<Class<?>, Method[]> acceptChains = new ConcurrentHashMap<Class<?>, Method[]>();
+
+   private List<ParallelWalker.DeferredWrite> deferredWrites = null;
+
    public AbstractWalker() {
-      this.visitedElements = new HashSet<Object>();
+      this.visitedElements = visitedElementsScope.createSet();
       this.visitorMessages = new LinkedList<VisitorMessage>();
    }
 
    @Override
    public void setVisitors(List<Object> visitor) {
       this.visitor = visitor;
+      visitorDispatch.clear();
+      if (visitor != null) {
+         for (Object v : visitor) {
+            visitorDispatch.register(v.getClass());
+         }
+      }
    }
 
    @Override
@@ -103,48 +126,34 @@ public abstract class AbstractWalker implements ChainWalker {
             if (isMergeable && mergePolicy == null) {
                mergePolicy = "default";
             }
-            Method[] methods = visitor.getClass().getMethods();
+            DispatchTable.Invoker[] invokers = visitorDispatch.resolve(visitor, element);
             List<Object> restVisitors = visitors.subList(index + 1, visitors.size());
             List<TransformationConfig> restTransformations = transformations.subList(index + 1, transformations.size());
-            Set<String> visitedTypes = new HashSet<String>();
-            for (int j = 0; j < methods.length; j++) {
-               if (methods[j].getName().equals("visit")) {
-                  Class<?> type = methods[j].getParameterTypes()[0];
-                  if ((!visitedTypes.contains(element.getClass().getName())) && type.isInstance(element)) {
-                     visitedTypes.add(type.getName());
-                     int paramsLength = methods[j].getParameterTypes().length;
-                     Object[] params = new Object[paramsLength];
-                     params[0] = element;
-                     VisitorContext args = new VisitorContext(getChainConfig());
-                     args.putAll(context);
-                     if (paramsLength == 2) {
-                        params[1] = args;
-                     }
-                     methods[j].invoke(visitor, params);
-                     context.getVisitorMessages().addAll(args.getVisitorMessages());
-                     MergeEngine me = null;
-                     if (isMergeable) {
-                        me = chainConfig.getConfiguration().getMergeEngine(mergePolicy);
-                     }
-                     if (args.hasResultNodes()) {
+            for (int j = 0; j < invokers.length; j++) {
+               VisitorContext args = new VisitorContext(getChainConfig(), context);
+               invokers[j].invoke(visitor, element, args);
+               context.getVisitorMessages().addAll(args.getVisitorMessages());
+               MergeEngine me = null;
+               if (isMergeable) {
+                  me = chainConfig.getConfiguration().getMergeEngine(mergePolicy);
+               }
+               if (args.hasResultNodes()) {
 
-                        Iterator<Object> it = args.getResultNodes().iterator();
+                  Iterator<Object> it = args.getResultNodes().iterator();
 
-                        while (it.hasNext()) {
-                           Object currentArg = it.next();
-                           if (isMergeable) {
-                              currentArg = merge(currentArg, me, context);
-                           }
+                  while (it.hasNext()) {
+                     Object currentArg = it.next();
+                     if (isMergeable) {
+                        currentArg = merge(currentArg, me, context);
+                     }
 
-                           context.addResultNode(currentArg);
+                     context.addResultNode(currentArg);
 
-                           visit(currentArg, restVisitors, restTransformations, context);
-                        }
-                        return;
-                     } else {
-                        context.addResultNode(element);
-                     }
+                     visit(currentArg, restVisitors, restTransformations, context);
                   }
+                  return;
+               } else {
+                  context.addResultNode(element);
                }
             }
             index++;
@@ -192,21 +201,22 @@ public abstract class AbstractWalker implements ChainWalker {
    }
 
    protected void write(Object element, VisitorContext vc) throws Exception {
-      Method[] methods = writer.getClass().getMethods();
-      for (int j = 0; j < methods.length; j++) {
-         if (methods[j].getName().equals("write")) {
-            Class<?> type = methods[j].getParameterTypes()[0];
-            int paramsLength = methods[j].getParameterTypes().length;
-            Object[] params = new Object[paramsLength];
-            params[0] = element;
-            if (paramsLength == 2) {
-               params[1] = vc;
-            }
-            if (type.isInstance(element)) {
-               methods[j].invoke(writer, params);
-            }
-         }
+      if (deferredWrites != null) {
+         deferredWrites.add(new ParallelWalker.DeferredWrite(element, vc));
+         return;
       }
+      DispatchTable.Invoker[] invokers = writerDispatch.resolve(writer, element);
+      for (int j = 0; j < invokers.length; j++) {
+         invokers[j].invoke(writer, element, vc);
+      }
+   }
+
+   /**
+    * Sets where the writes are collected instead of being sent to the writer.
+    * Used by the {@link ParallelWalker} to write the results in order.
+    */
+   void setDeferredWrites(List<ParallelWalker.DeferredWrite> deferredWrites) {
+      this.deferredWrites = deferredWrites;
    }
 
    public boolean isVisitable(Object element) throws Exception {
@@ -241,6 +251,44 @@ public abstract class AbstractWalker implements ChainWalker {
       this.visitedElements = visitedElements;
    }
 
+   public VisitedElementsScope getVisitedElementsScope() {
+      return visitedElementsScope;
+   }
+
+   /**
+    * Sets how long the visited elements are remembered: during the whole chain
+    * (<code>chain</code>), while processing each resource element
+    * (<code>resource</code>) or while they are reachable (<code>weak</code>).
+    *
+    * @param scope
+    *           the name of a {@link VisitedElementsScope}
+    */
+   public void setVisitedElementsScope(String scope) {
+      this.visitedElementsScope = VisitedElementsScope.fromString(scope);
+      this.visitedElements = visitedElementsScope.createSet();
+   }
+
+   /**
+    * Walks an element of the resource and, according the visited elements
+    * scope, forgets the visited elements afterwards. The files that fail are
+    * registered in the {@link Summary}, so that the incremental executions
+    * process them again.
+    */
+   void walkResourceElement(Object element) throws Exception {
+      try {
+         walk(element);
+      } catch (Exception e) {
+         if (element instanceof File) {
+            Summary.getInstance().addFailedFile((File) element);
+         }
+         throw e;
+      } finally {
+         if (visitedElementsScope.isClearedPerResource()) {
+            visitedElements.clear();
+         }
+      }
+   }
+
    @Override
    public void setRootNamespace(String namespace) {
       this.rootNamespace = namespace;
@@ -252,22 +300,63 @@ public abstract class AbstractWalker implements ChainWalker {
 
    public void walk(Object element) throws Exception {
       if (element != null) {
-         Collection<java.lang.Class<?>> types = new LinkedList<Class<?>>();
-         types.add(element.getClass());
-         Queue<java.lang.Class<?>> interfaces = new ConcurrentLinkedQueue<java.lang.Class<?>>(types);
-         Collection<java.lang.Class<?>> visitedTypes = new LinkedList<java.lang.Class<?>>();
-         while (interfaces.size() > 0) {
-            java.lang.Class<?> type = interfaces.poll();
+         Method[] methods = getAcceptChain(element.getClass());
+         for (int i = 0; i < methods.length; i++) {
+            methods[i].invoke(this, element);
+         }
+      }
+   }
+
+   /**
+    * Resolves the accept methods to call for an element type: the one of the
+    * type itself and, recursively, the ones of the interfaces of each type that
+    * has an accept method. The result (even when empty) is cached per type.
+    */
+   Method[] getAcceptChain(Class<?> elementType) {
+      Method[] result = acceptChains.get(elementType);
+      if (result == null) {
+         Map<Class<?>, Method> acceptMethods = getAcceptMethodsByType();
+         List<Method> chain = new LinkedList<Method>();
+         Queue<Class<?>> types = new LinkedList<Class<?>>();
+         Set<Class<?>> visitedTypes = new HashSet<Class<?>>();
+         types.add(elementType);
+         while (!types.isEmpty()) {
+            Class<?> type = types.poll();
             if (visitedTypes.add(type)) {
-               try {
-                  Method m = this.getClass().getMethod("accept", type);
-                  m.invoke(this, element);
-                  interfaces.addAll(Arrays.asList(type.getInterfaces()));
-               } catch (NoSuchMethodException e) {
+               Method m = acceptMethods.get(type);
+               if (m != null) {
+                  chain.add(m);
+                  types.addAll(Arrays.asList(type.getInterfaces()));
+               }
+            }
+         }
+         result = chain.toArray(new Method[chain.size()]);
+         acceptChains.put(elementType, result);
+      }
+      return result;
+   }
+
+   private Map<Class<?>, Method> getAcceptMethodsByType() {
+      Map<Class<?>, Method> result = acceptMethodsByType;
+      if (result == null) {
+         result = new HashMap<Class<?>, Method>();
+         Method[] methods = getClass().getMethods();
+         for (int i = 0; i < methods.length; i++) {
+            if (methods[i].getName().equals("accept")) {
+               Class<?>[] paramTypes = methods[i].getParameterTypes();
+               if (paramTypes.length == 1) {
+                  Method previous = result.get(paramTypes[0]);
+                  // same criteria than Class.getMethod for covariant return types
+                  if (previous == null
+                        || previous.getReturnType().isAssignableFrom(methods[i].getReturnType())) {
+                     result.put(paramTypes[0], methods[i]);
+                  }
                }
             }
          }
+         acceptMethodsByType = result;
       }
+      return result;
    }
 
    @Override
@@ -276,7 +365,7 @@ public abstract class AbstractWalker implements ChainWalker {
       while (it.hasNext()) {
          Object current = it.next();
          try {
-            walk(current);
+            walkResourceElement(current);
          } catch (WalkModException e) {
             log.error(e.getMessage());
          }
@@ -286,6 +375,10 @@ public abstract class AbstractWalker implements ChainWalker {
    @Override
    public void setWriter(Object writer) {
       this.writer = writer;
+      writerDispatch.clear();
+      if (writer != null) {
+         writerDispatch.register(writer.getClass());
+      }
    }
 
    public Object getWriter() {
@@ -319,20 +412,21 @@ public abstract class AbstractWalker implements ChainWalker {
    protected Object merge(Object object, MergeEngine mergeEngine, VisitorContext vc) {
 
       Object local = null;
-      Collection<Object> rnodes = vc.getResultNodes();
+      Object original = object;
+      Object previous = null;
       boolean previousResult = false;
-      Iterator<Object> it = rnodes.iterator();
-      if (object instanceof IdentificableNode) {
-         local = null;
-         Comparator cmp = ((IdentificableNode) object).getIdentityComparator();
-         boolean deleted = false;
-         while (it.hasNext() && local == null) {
-            Object current = it.next();
-            if (current == object) {
-               it.remove();
-               deleted = true;
-            } else if (object.getClass().equals(current.getClass())) {
-               if (cmp.compare(current, object) == 0) {
+      boolean deleted = false;
+      if (object != null) {
+         // only the result nodes of the same class are merge candidates
+         Iterator<Object> it = vc.getResultNodesOfType(object.getClass()).iterator();
+         if (object instanceof IdentificableNode) {
+            Comparator cmp = ((IdentificableNode) object).getIdentityComparator();
+            while (it.hasNext() && local == null) {
+               Object current = it.next();
+               if (current == object) {
+                  deleted = true;
+               } else if (cmp.compare(current, object) == 0) {
+                  previous = current;
                   if (deleted) {
                      local = object;
                      object = current;
@@ -341,20 +435,25 @@ public abstract class AbstractWalker implements ChainWalker {
                   }
                }
             }
-         }
-      } else {
-         it = rnodes.iterator();
-         while (it.hasNext() && local == null) {
-            Object current = it.next();
-            if (current == object) {
-               it.remove();
-            } else if (current.equals(object)) {
-               local = current;
+         } else {
+            while (it.hasNext() && local == null) {
+               Object current = it.next();
+               if (current == object) {
+                  deleted = true;
+               } else if (current.equals(object)) {
+                  previous = current;
+                  local = current;
+               }
             }
          }
+         if (deleted) {
+            vc.removeResultNode(original);
+         }
       }
       previousResult = local != null;
-      if (!previousResult) {
+      if (previousResult) {
+         vc.removeResultNode(previous);
+      } else {
          local = getSourceNode(object);
       }
 
@@ -363,23 +462,12 @@ public abstract class AbstractWalker implements ChainWalker {
 
             ((Mergeable) local).merge(object, mergeEngine);
 
-            if (previousResult) {
-               it.remove();
-            }
-
             return local;
 
          } else {
-            if (previousResult) {
-               it.remove();
-               // vc.addResultNode(object);
-            }
             return object;
          }
       }
-      if (previousResult) {
-         it.remove();
-      }
       return local;
    }
 
@@ -0,0 +1,155 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.walkers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.security.CodeSource;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Serialization of the ASTs stored by the parse caches. The classes are
+ * resolved with the class loader of the parser, which may not be visible from
+ * walkmod.
+ *
+ * The ASTs read from other sources than the memory of the current process
+ * (e.g. the cache directory) can only contain the classes of the parser (its
+ * package and subpackages, or its jar), of java.lang and the collections of
+ * java.util, so that a tampered cache cannot instantiate other serializable
+ * classes.
+ */
+final class AstSerialization {
+
+	private static final Set<String> COLLECTIONS = new HashSet<String>(Arrays.asList("java.util.ArrayList",
+			"java.util.LinkedList", "java.util.ArrayDeque", "java.util.HashMap", "java.util.LinkedHashMap",
+			"java.util.TreeMap", "java.util.IdentityHashMap", "java.util.EnumMap", "java.util.HashSet",
+			"java.util.LinkedHashSet", "java.util.TreeSet", "java.util.Arrays$ArrayList"));
+
+	private AstSerialization() {
+	}
+
+	public static byte[] toBytes(Object ast) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		write(ast, baos);
+		return baos.toByteArray();
+	}
+
+	public static Object fromBytes(byte[] bytes, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+		return new AstInputStream(new ByteArrayInputStream(bytes), classLoader, null).readObject();
+	}
+
+	public static void write(Object ast, OutputStream os) throws IOException {
+		ObjectOutputStream oos = new ObjectOutputStream(os);
+		oos.writeObject(ast);
+		oos.flush();
+	}
+
+	/**
+	 * Reads an AST that only contains the allowed classes.
+	 *
+	 * @param is
+	 *            serialized AST
+	 * @param parserType
+	 *            class of the parser that has created the AST
+	 * @return the AST
+	 * @throws InvalidClassException
+	 *             if the AST contains a class that is not allowed
+	 */
+	public static Object read(InputStream is, Class<?> parserType) throws IOException, ClassNotFoundException {
+		return new AstInputStream(is, parserType.getClassLoader(), parserType).readObject();
+	}
+
+	static boolean isAllowed(String className, Class<?> parserType) {
+		String name = className;
+		while (name.startsWith("[")) {
+			name = name.substring(1);
+		}
+		if (name.length() == 1) {
+			// array of primitives
+			return true;
+		}
+		if (name.startsWith("L") && name.endsWith(";")) {
+			name = name.substring(1, name.length() - 1);
+		}
+		if (name.startsWith("java.lang.") && name.indexOf('.', "java.lang.".length()) == -1) {
+			return true;
+		}
+		if (COLLECTIONS.contains(name) || name.startsWith("java.util.Collections$")) {
+			return true;
+		}
+		Package parserPackage = parserType.getPackage();
+		return parserPackage != null && name.startsWith(parserPackage.getName() + ".");
+	}
+
+	private static boolean isFromTheSameSource(Class<?> type, Class<?> parserType) {
+		while (type.isArray()) {
+			type = type.getComponentType();
+		}
+		CodeSource source = type.getProtectionDomain().getCodeSource();
+		CodeSource parserSource = parserType.getProtectionDomain().getCodeSource();
+		return source != null && parserSource != null && source.getLocation() != null
+				&& source.getLocation().equals(parserSource.getLocation());
+	}
+
+	private static class AstInputStream extends ObjectInputStream {
+
+		private final ClassLoader classLoader;
+
+		private final Class<?> parserType;
+
+		public AstInputStream(InputStream is, ClassLoader classLoader, Class<?> parserType) throws IOException {
+			super(is);
+			this.classLoader = classLoader;
+			this.parserType = parserType;
+		}
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			String name = desc.getName();
+			boolean allowed = parserType == null || isAllowed(name, parserType);
+			Class<?> result;
+			try {
+				result = Class.forName(name, false, classLoader);
+			} catch (ClassNotFoundException e) {
+				if (!allowed) {
+					throw new InvalidClassException(name, "Not allowed in an AST");
+				}
+				return super.resolveClass(desc);
+			}
+			if (!allowed && !isFromTheSameSource(result, parserType)) {
+				throw new InvalidClassException(name, "Not allowed in an AST");
+			}
+			return result;
+		}
+
+		@Override
+		protected Class<?> resolveProxyClass(String[] interfaces) throws IOException, ClassNotFoundException {
+			if (parserType != null) {
+				throw new InvalidClassException("Proxy classes are not allowed in an AST");
+			}
+			return super.resolveProxyClass(interfaces);
+		}
+	}
+}
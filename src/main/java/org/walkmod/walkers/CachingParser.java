@@ -0,0 +1,124 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.walkers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Serializable;
+
+import org.apache.log4j.Logger;
+import org.walkmod.util.FileManifest;
+
+/**
+ * Parser that reuses the ASTs of the {@link ParseCache} for the files that
+ * have already been parsed in the same execution. The first reader of a file
+ * receives the parsed AST, and the next ones a copy of it as it was parsed,
+ * so the changes of a chain are never seen by the others. Only the
+ * {@link Serializable} ASTs are cached. The text and reader based methods are
+ * delegated, and the contents received from a {@link PrefetchedParser} are
+ * used to validate the cached ASTs without reading the files again.
+ *
+ * @param <T>
+ *            AST type
+ */
+public class CachingParser<T> implements ContentParser<T> {
+
+	private static Logger log = Logger.getLogger(CachingParser.class);
+
+	private final Parser<T> parser;
+
+	private final ParseCache cache;
+
+	public CachingParser(Parser<T> parser, ParseCache cache) {
+		this.parser = parser;
+		this.cache = cache;
+	}
+
+	/**
+	 * @return the decorated parser
+	 */
+	public Parser<T> getParser() {
+		return parser;
+	}
+
+	@Override
+	public T parse(String text) throws ParseException {
+		return parser.parse(text);
+	}
+
+	@Override
+	public T parse(String text, boolean withoutLocation) throws ParseException {
+		return parser.parse(text, withoutLocation);
+	}
+
+	@Override
+	public T parse(File file) throws ParseException {
+		return parse(file, null, null);
+	}
+
+	@Override
+	public T parse(File file, String encoding) throws ParseException {
+		return parse(file, encoding, null);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public T parse(File file, String encoding, byte[] content) throws ParseException {
+		String path;
+		try {
+			path = file.getCanonicalPath();
+		} catch (IOException e) {
+			return PrefetchedParser.parse(parser, file, encoding, content);
+		}
+		String variant = parser.getClass().getName() + ":" + encoding;
+		byte[] snapshot = cache.get(path, variant, file, content);
+		if (snapshot != null) {
+			try {
+				return (T) AstSerialization.fromBytes(snapshot, parser.getClass().getClassLoader());
+			} catch (Exception e) {
+				log.debug("Discarding the cached AST of " + path + ": " + e.getMessage());
+				cache.invalidate(file);
+			}
+		}
+		long fileSize = content != null ? content.length : file.length();
+		long lastModified = file.lastModified();
+		String hash;
+		if (content != null) {
+			hash = FileManifest.hash(content);
+		} else {
+			try {
+				hash = FileManifest.hash(file);
+			} catch (IOException e) {
+				return PrefetchedParser.parse(parser, file, encoding, null);
+			}
+		}
+		T result = PrefetchedParser.parse(parser, file, encoding, content);
+		if (result instanceof Serializable) {
+			try {
+				cache.put(path, variant, fileSize, lastModified, hash, AstSerialization.toBytes(result));
+			} catch (IOException e) {
+				log.debug("The AST of " + path + " cannot be cached: " + e.getMessage());
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public T parse(Reader reader) throws ParseException {
+		return parser.parse(reader);
+	}
+}
@@ -0,0 +1,43 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.walkers;
+
+import java.io.File;
+
+/**
+ * Parser that can receive the contents of a file, when they have already been
+ * read (e.g. by a {@link org.walkmod.util.PrefetchingResource}), so that it
+ * does not need to read the file again.
+ *
+ * @param <T>
+ *            AST type
+ */
+public interface ContentParser<T> extends Parser<T> {
+
+	/**
+	 * @param file
+	 *            parsed file
+	 * @param encoding
+	 *            encoding of the file, or null to use the default one
+	 * @param content
+	 *            contents of the file, or null to read them from the file
+	 * @return the AST of the file
+	 * @throws ParseException
+	 *             if the file cannot be parsed
+	 */
+	public T parse(File file, String encoding, byte[] content) throws ParseException;
+
+}
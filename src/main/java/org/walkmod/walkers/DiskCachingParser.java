@@ -0,0 +1,351 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.walkers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Serializable;
+import java.net.URL;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+import org.walkmod.util.FileManifest;
+
+/**
+ * Parser that stores the serialized ASTs in a local directory, so that the
+ * files that have not changed are not parsed again in the next executions. The
+ * cache is content-addressed: the entries are identified by the hash of the
+ * file contents, the encoding and the parser class and version. Only the
+ * {@link Serializable} ASTs are stored, and the stored ASTs are only read if
+ * they contain the classes of the parser, java.lang and the java.util
+ * collections. Otherwise, they are handled as a cache miss.
+ *
+ * The directory is bounded: when its size exceeds the maximum, the least
+ * recently used entries are removed.
+ *
+ * @param <T>
+ *            AST type
+ */
+public class DiskCachingParser<T> implements ContentParser<T> {
+
+	/**
+	 * Default bound of the cache directory size, in bytes.
+	 */
+	public static final long DEFAULT_MAX_SIZE = 256L * 1024 * 1024;
+
+	private static final String EXTENSION = ".ast";
+
+	private static final ConcurrentMap<String, Store> STORES = new ConcurrentHashMap<String, Store>();
+
+	private static Logger log = Logger.getLogger(DiskCachingParser.class);
+
+	private final Parser<T> parser;
+
+	private final Store store;
+
+	private final String parserId;
+
+	/**
+	 * @param parser
+	 *            decorated parser
+	 * @param directory
+	 *            cache directory
+	 * @param maxSize
+	 *            maximum size of the cache directory, in bytes
+	 */
+	public DiskCachingParser(Parser<T> parser, File directory, long maxSize) {
+		this(parser, directory, maxSize, getParserId(parser.getClass()));
+	}
+
+	DiskCachingParser(Parser<T> parser, File directory, long maxSize, String parserId) {
+		this.parser = parser;
+		this.store = getStore(directory, maxSize);
+		this.parserId = parserId;
+	}
+
+	private static Store getStore(File directory, long maxSize) {
+		String key = directory.getAbsolutePath();
+		Store store = STORES.get(key);
+		if (store == null) {
+			store = new Store(directory);
+			Store previous = STORES.putIfAbsent(key, store);
+			if (previous != null) {
+				store = previous;
+			}
+		}
+		store.setMaxSize(maxSize);
+		return store;
+	}
+
+	/**
+	 * The version of a parser is the implementation version of its package
+	 * or, if it is not available, the last modification time of its jar.
+	 */
+	private static String getParserId(Class<?> type) {
+		String version = null;
+		if (type.getPackage() != null) {
+			version = type.getPackage().getImplementationVersion();
+		}
+		if (version == null) {
+			try {
+				CodeSource cs = type.getProtectionDomain().getCodeSource();
+				URL location = cs != null ? cs.getLocation() : null;
+				if (location != null && "file".equals(location.getProtocol())) {
+					version = Long.toString(new File(location.toURI()).lastModified());
+				}
+			} catch (Exception e) {
+				version = null;
+			}
+		}
+		return type.getName() + ":" + version;
+	}
+
+	public Parser<T> getParser() {
+		return parser;
+	}
+
+	@Override
+	public T parse(String text) throws ParseException {
+		return parser.parse(text);
+	}
+
+	@Override
+	public T parse(String text, boolean withoutLocation) throws ParseException {
+		return parser.parse(text, withoutLocation);
+	}
+
+	@Override
+	public T parse(File file) throws ParseException {
+		return parse(file, null, null);
+	}
+
+	@Override
+	public T parse(File file, String encoding) throws ParseException {
+		return parse(file, encoding, null);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public T parse(File file, String encoding, byte[] content) throws ParseException {
+		String hash;
+		if (content != null) {
+			hash = FileManifest.hash(content);
+		} else {
+			try {
+				hash = FileManifest.hash(file);
+			} catch (IOException e) {
+				return PrefetchedParser.parse(parser, file, encoding, null);
+			}
+		}
+		String key = FileManifest.hash(parserId + ":" + encoding + ":" + hash);
+		Object cached = store.read(key, parser.getClass());
+		if (cached != null) {
+			return (T) cached;
+		}
+		T result = PrefetchedParser.parse(parser, file, encoding, content);
+		if (result instanceof Serializable) {
+			store.write(key, result);
+		}
+		return result;
+	}
+
+	@Override
+	public T parse(Reader reader) throws ParseException {
+		return parser.parse(reader);
+	}
+
+	/**
+	 * Cache directory, shared by all the parsers that use it. The entries are
+	 * distributed in subdirectories by the first characters of their key.
+	 */
+	private static class Store {
+
+		private final File directory;
+
+		private volatile long maxSize = DEFAULT_MAX_SIZE;
+
+		private long size = -1;
+
+		public Store(File directory) {
+			this.directory = directory;
+		}
+
+		public void setMaxSize(long maxSize) {
+			this.maxSize = maxSize;
+		}
+
+		private File getEntry(String key) {
+			return new File(new File(directory, key.substring(0, 2)), key + EXTENSION);
+		}
+
+		public Object read(String key, Class<?> parserType) {
+			File entry = getEntry(key);
+			if (!entry.isFile()) {
+				return null;
+			}
+			try {
+				InputStream is = new BufferedInputStream(new FileInputStream(entry));
+				try {
+					Object result = AstSerialization.read(is, parserType);
+					// the modification time is the last access for the cleanup
+					entry.setLastModified(System.currentTimeMillis());
+					return result;
+				} finally {
+					is.close();
+				}
+			} catch (Exception e) {
+				log.debug("Discarding the cached AST " + entry.getPath() + ": " + e.getMessage());
+				delete(entry);
+				return null;
+			}
+		}
+
+		public void write(String key, Object ast) {
+			File entry = getEntry(key);
+			File parent = entry.getParentFile();
+			if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+				return;
+			}
+			File tmp = null;
+			try {
+				tmp = File.createTempFile(key, ".tmp", parent);
+				OutputStream os = new BufferedOutputStream(new FileOutputStream(tmp));
+				try {
+					AstSerialization.write(ast, os);
+				} finally {
+					os.close();
+				}
+				if (!tmp.renameTo(entry)) {
+					// another thread or process has stored the same entry
+					tmp.delete();
+					return;
+				}
+			} catch (IOException e) {
+				log.debug("The AST cannot be cached: " + e.getMessage());
+				if (tmp != null) {
+					tmp.delete();
+				}
+				return;
+			}
+			added(entry.length());
+		}
+
+		private synchronized void added(long entrySize) {
+			if (size < 0) {
+				size = computeSize();
+			} else {
+				size += entrySize;
+			}
+			if (size > maxSize) {
+				cleanup();
+			}
+		}
+
+		private void delete(File entry) {
+			long entrySize = entry.length();
+			if (entry.delete()) {
+				synchronized (this) {
+					if (size >= 0) {
+						size -= entrySize;
+					}
+				}
+			}
+		}
+
+		private List<File> listEntries() {
+			List<File> result = new ArrayList<File>();
+			File[] dirs = directory.listFiles();
+			if (dirs != null) {
+				for (int i = 0; i < dirs.length; i++) {
+					File[] files = dirs[i].listFiles();
+					if (files != null) {
+						for (int j = 0; j < files.length; j++) {
+							if (files[j].getName().endsWith(EXTENSION)) {
+								result.add(files[j]);
+							}
+						}
+					}
+				}
+			}
+			return result;
+		}
+
+		private long computeSize() {
+			long result = 0;
+			for (File entry : listEntries()) {
+				result += entry.length();
+			}
+			return result;
+		}
+
+		/**
+		 * Removes the least recently used entries until the directory uses
+		 * three quarters of its maximum size, so that the cleanup is not
+		 * repeated on every write.
+		 */
+		private void cleanup() {
+			List<File> files = listEntries();
+			List<Entry> entries = new ArrayList<Entry>(files.size());
+			long total = 0;
+			for (File file : files) {
+				Entry entry = new Entry(file);
+				entries.add(entry);
+				total += entry.length;
+			}
+			Collections.sort(entries);
+			long target = maxSize / 4 * 3;
+			for (int i = 0; i < entries.size() && total > target; i++) {
+				Entry entry = entries.get(i);
+				if (entry.file.delete()) {
+					total -= entry.length;
+				}
+			}
+			size = total;
+		}
+	}
+
+	private static class Entry implements Comparable<Entry> {
+
+		private final File file;
+
+		private final long lastModified;
+
+		private final long length;
+
+		public Entry(File file) {
+			this.file = file;
+			this.lastModified = file.lastModified();
+			this.length = file.length();
+		}
+
+		@Override
+		public int compareTo(Entry o) {
+			return lastModified < o.lastModified ? -1 : (lastModified > o.lastModified ? 1 : 0);
+		}
+	}
+}
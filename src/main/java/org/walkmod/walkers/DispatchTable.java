@@ -0,0 +1,203 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+
+package org.walkmod.walkers;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolves, once per (receiver class, element class) pair, the public methods
+ * with a given name (e.g. <code>visit</code>) that can be invoked with an
+ * element as first argument and, optionally, a context as second one. The
+ * resolved methods are returned in the same order than
+ * {@link Class#getMethods()}.
+ */
+public class DispatchTable {
+
+   private static final Invoker[] NO_INVOKERS = new Invoker[0];
+
+   private final String methodName;
+
+   private final boolean exactMatchWins;
+
+   private final ConcurrentMap<Class<?>, Invoker[]> candidates = new ConcurrentHashMap<Class<?>, Invoker[]>();
+
+   private final ConcurrentMap<Class<?>, ConcurrentMap<Class<?>, Invoker[]>> resolved = new ConcurrentHashMap<Class<?>, ConcurrentMap<Class<?>, Invoker[]>>();
+
+   public DispatchTable(String methodName) {
+      this(methodName, true);
+   }
+
+   /**
+    * @param methodName
+    *           name of the dispatched methods.
+    * @param exactMatchWins
+    *           if true, the candidates placed after a method whose first
+    *           parameter is exactly the element class are discarded.
+    *           Otherwise, all the applicable methods are returned.
+    */
+   public DispatchTable(String methodName, boolean exactMatchWins) {
+      this.methodName = methodName;
+      this.exactMatchWins = exactMatchWins;
+   }
+
+   public String getMethodName() {
+      return methodName;
+   }
+
+   /**
+    * Precompiles the candidate methods of a receiver class.
+    *
+    * @param receiverType
+    *           class whose methods will be invoked.
+    */
+   public void register(Class<?> receiverType) {
+      getCandidates(receiverType);
+   }
+
+   private Invoker[] getCandidates(Class<?> receiverType) {
+      Invoker[] result = candidates.get(receiverType);
+      if (result == null) {
+         List<Invoker> invokers = new ArrayList<Invoker>();
+         Method[] all = receiverType.getMethods();
+         for (int i = 0; i < all.length; i++) {
+            if (all[i].getName().equals(methodName)) {
+               Class<?>[] paramTypes = all[i].getParameterTypes();
+               if (paramTypes.length == 1 || paramTypes.length == 2) {
+                  try {
+                     // invocations skip the access checks from now on
+                     all[i].setAccessible(true);
+                  } catch (RuntimeException e) {
+                     // SecurityException, or InaccessibleObjectException in
+                     // the modules of JDK 9+: the access checks remain
+                  }
+                  invokers.add(new Invoker(all[i], paramTypes[0], paramTypes.length == 2));
+               }
+            }
+         }
+         result = invokers.toArray(new Invoker[invokers.size()]);
+         Invoker[] previous = candidates.putIfAbsent(receiverType, result);
+         if (previous != null) {
+            result = previous;
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Returns the methods of the receiver that must be invoked for an element.
+    *
+    * @param receiver
+    *           object whose methods will be invoked.
+    * @param element
+    *           element to dispatch.
+    * @return the sorted methods to invoke. Empty for null elements.
+    */
+   public Invoker[] resolve(Object receiver, Object element) {
+      if (element == null) {
+         return NO_INVOKERS;
+      }
+      return resolve(receiver.getClass(), element.getClass());
+   }
+
+   /**
+    * Returns the methods of the receiver class that must be invoked for an
+    * element class.
+    *
+    * @param receiverType
+    *           class whose methods will be invoked.
+    * @param elementType
+    *           class of the element to dispatch.
+    * @return the sorted methods to invoke. Never null.
+    */
+   public Invoker[] resolve(Class<?> receiverType, Class<?> elementType) {
+      ConcurrentMap<Class<?>, Invoker[]> byElement = resolved.get(receiverType);
+      if (byElement == null) {
+         byElement = new ConcurrentHashMap<Class<?>, Invoker[]>();
+         ConcurrentMap<Class<?>, Invoker[]> previous = resolved.putIfAbsent(receiverType, byElement);
+         if (previous != null) {
+            byElement = previous;
+         }
+      }
+      Invoker[] result = byElement.get(elementType);
+      if (result == null) {
+         Invoker[] invokers = getCandidates(receiverType);
+         List<Invoker> matches = new ArrayList<Invoker>();
+         for (int i = 0; i < invokers.length; i++) {
+            Class<?> type = invokers[i].getElementType();
+            if (type.isAssignableFrom(elementType)) {
+               matches.add(invokers[i]);
+               if (exactMatchWins && type.equals(elementType)) {
+                  break;
+               }
+            }
+         }
+         if (matches.isEmpty()) {
+            result = NO_INVOKERS;
+         } else {
+            result = matches.toArray(new Invoker[matches.size()]);
+         }
+         byElement.put(elementType, result);
+      }
+      return result;
+   }
+
+   public void clear() {
+      candidates.clear();
+      resolved.clear();
+   }
+
+   /**
+    * Resolved method, with its parameter types already inspected.
+    */
+   public static class Invoker {
+
+      private final Method method;
+
+      private final Class<?> elementType;
+
+      private final boolean requiresContext;
+
+      private Invoker(Method method, Class<?> elementType, boolean requiresContext) {
+         this.method = method;
+         this.elementType = elementType;
+         this.requiresContext = requiresContext;
+      }
+
+      public Method getMethod() {
+         return method;
+      }
+
+      public Class<?> getElementType() {
+         return elementType;
+      }
+
+      public boolean requiresContext() {
+         return requiresContext;
+      }
+
+      public Object invoke(Object receiver, Object element, Object context) throws Exception {
+         if (requiresContext) {
+            return method.invoke(receiver, element, context);
+         }
+         return method.invoke(receiver, element);
+      }
+   }
+}
@@ -0,0 +1,80 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.walkers;
+
+import java.io.File;
+import java.io.Reader;
+
+import org.walkmod.writers.Summary;
+
+/**
+ * Parser that registers in the {@link Summary} the files that cannot be
+ * parsed, even if the walker just logs the error, so that the incremental
+ * executions process them again.
+ *
+ * @param <T>
+ *            AST type
+ */
+public class FailureRecordingParser<T> implements Parser<T> {
+
+	private final Parser<T> parser;
+
+	public FailureRecordingParser(Parser<T> parser) {
+		this.parser = parser;
+	}
+
+	/**
+	 * @return the decorated parser
+	 */
+	public Parser<T> getParser() {
+		return parser;
+	}
+
+	@Override
+	public T parse(String text) throws ParseException {
+		return parser.parse(text);
+	}
+
+	@Override
+	public T parse(String text, boolean withoutLocation) throws ParseException {
+		return parser.parse(text, withoutLocation);
+	}
+
+	@Override
+	public T parse(File file) throws ParseException {
+		try {
+			return parser.parse(file);
+		} catch (ParseException e) {
+			Summary.getInstance().addFailedFile(file);
+			throw e;
+		}
+	}
+
+	@Override
+	public T parse(File file, String encoding) throws ParseException {
+		try {
+			return parser.parse(file, encoding);
+		} catch (ParseException e) {
+			Summary.getInstance().addFailedFile(file);
+			throw e;
+		}
+	}
+
+	@Override
+	public T parse(Reader reader) throws ParseException {
+		return parser.parse(reader);
+	}
+}
@@ -0,0 +1,323 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+
+package org.walkmod.walkers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.walkmod.ChainWalker;
+import org.walkmod.Resource;
+import org.walkmod.conf.entities.ChainConfig;
+import org.walkmod.exceptions.WalkModException;
+
+/**
+ * Walker that processes the elements of a resource with several threads.
+ * Each thread borrows one of the worker walkers, which have their own visitors
+ * and parser, so that they are never shared between threads. The results are
+ * written by the coordinator walker, in the same order than the resource
+ * iterator, so the writers receive the same sequence than in a sequential
+ * execution.
+ */
+public class ParallelWalker implements ChainWalker {
+
+   private final AbstractWalker coordinator;
+
+   private final List<AbstractWalker> workers;
+
+   private final int parallelism;
+
+   /**
+    * Seconds to wait for the workers that are still walking when the execution
+    * finishes with an error.
+    */
+   private static final long SHUTDOWN_TIMEOUT = 30;
+
+   private static Logger log = Logger.getLogger(ParallelWalker.class);
+
+   /**
+    * @param coordinator
+    *           walker that iterates the resource and writes the results.
+    * @param workers
+    *           walkers that visit the elements. One thread is created per
+    *           worker.
+    */
+   public ParallelWalker(AbstractWalker coordinator, List<AbstractWalker> workers) {
+      this.coordinator = coordinator;
+      this.workers = workers;
+      this.parallelism = workers.size();
+   }
+
+   public int getParallelism() {
+      return parallelism;
+   }
+
+   /**
+    * Returns how many elements can be walked or waiting to be written at the
+    * same time. A resource that prefetches the elements must read at least
+    * this number of them in advance.
+    *
+    * @param parallelism
+    *           number of worker walkers.
+    * @return the maximum number of pending elements.
+    */
+   public static int getPendingWindow(int parallelism) {
+      return parallelism * 2;
+   }
+
+   @Override
+   public void execute() throws Exception {
+      final BlockingQueue<AbstractWalker> idleWorkers = new LinkedBlockingQueue<AbstractWalker>(workers);
+      ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+      LinkedList<Future<WalkResult>> pending = new LinkedList<Future<WalkResult>>();
+      try {
+         Iterator<?> it = coordinator.getResource().iterator();
+         while (it.hasNext()) {
+            final Object current = it.next();
+            pending.add(executor.submit(new Callable<WalkResult>() {
+               @Override
+               public WalkResult call() throws Exception {
+                  AbstractWalker worker = idleWorkers.take();
+                  try {
+                     return walk(worker, current);
+                  } finally {
+                     idleWorkers.add(worker);
+                  }
+               }
+            }));
+            // bounds the results waiting to be written
+            if (pending.size() >= getPendingWindow(parallelism)) {
+               complete(pending.removeFirst());
+            }
+         }
+         while (!pending.isEmpty()) {
+            complete(pending.removeFirst());
+         }
+      } finally {
+         for (Future<WalkResult> future : pending) {
+            future.cancel(true);
+         }
+         executor.shutdownNow();
+         awaitTermination(executor);
+      }
+   }
+
+   /**
+    * Waits until the workers stop, so that they do not use the parser,
+    * visitors or writer after the chain is finished.
+    */
+   private void awaitTermination(ExecutorService executor) {
+      try {
+         if (!executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+            log.warn("The workers have not finished after " + SHUTDOWN_TIMEOUT + " seconds");
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   private WalkResult walk(AbstractWalker worker, Object element) throws Exception {
+      WalkResult result = new WalkResult();
+      worker.setDeferredWrites(result.writes);
+      try {
+         worker.walkResourceElement(element);
+      } catch (WalkModException e) {
+         log.error(e.getMessage());
+      } finally {
+         worker.setDeferredWrites(null);
+         Collection<VisitorMessage> messages = worker.getVisitorMessages();
+         result.messages.addAll(messages);
+         messages.clear();
+      }
+      return result;
+   }
+
+   private void complete(Future<WalkResult> future) throws Exception {
+      WalkResult result;
+      try {
+         result = future.get();
+      } catch (ExecutionException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof Exception) {
+            throw (Exception) cause;
+         }
+         throw new WalkModException(cause);
+      }
+      coordinator.getVisitorMessages().addAll(result.messages);
+      for (DeferredWrite write : result.writes) {
+         coordinator.write(write.element, write.context);
+      }
+   }
+
+   @Override
+   public void setParser(Parser<?> parser) {
+      coordinator.setParser(parser);
+   }
+
+   @Override
+   public Parser<?> getParser() {
+      return coordinator.getParser();
+   }
+
+   @Override
+   public void setResource(Resource<?> resource) {
+      coordinator.setResource(resource);
+      for (AbstractWalker worker : workers) {
+         worker.setResource(resource);
+      }
+   }
+
+   @Override
+   public void setVisitors(List<Object> visitor) {
+      coordinator.setVisitors(visitor);
+   }
+
+   @Override
+   public void setWriter(Object writer) {
+      coordinator.setWriter(writer);
+      for (AbstractWalker worker : workers) {
+         worker.setWriter(writer);
+      }
+   }
+
+   @Override
+   public void setRootNamespace(String namespace) {
+      coordinator.setRootNamespace(namespace);
+      for (AbstractWalker worker : workers) {
+         worker.setRootNamespace(namespace);
+      }
+   }
+
+   @Override
+   public void setChainConfig(ChainConfig ac) {
+      coordinator.setChainConfig(ac);
+      for (AbstractWalker worker : workers) {
+         worker.setChainConfig(ac);
+      }
+   }
+
+   @Override
+   public void setConstraintProviders(List<String> constraints) {
+      coordinator.setConstraintProviders(constraints);
+      for (AbstractWalker worker : workers) {
+         worker.setConstraintProviders(constraints);
+      }
+   }
+
+   @Override
+   public List<String> getConstraintProviders() {
+      return coordinator.getConstraintProviders();
+   }
+
+   @Override
+   public String getRootNamespace() {
+      return coordinator.getRootNamespace();
+   }
+
+   @Override
+   public List<Object> getVisitors() {
+      return coordinator.getVisitors();
+   }
+
+   @Override
+   public Object getWriter() {
+      return coordinator.getWriter();
+   }
+
+   @Override
+   public Collection<VisitorMessage> getVisitorMessages() {
+      return coordinator.getVisitorMessages();
+   }
+
+   @Override
+   public int getNumModifications() {
+      int result = coordinator.getNumModifications();
+      for (AbstractWalker worker : workers) {
+         result += worker.getNumModifications();
+      }
+      return result;
+   }
+
+   @Override
+   public int getNumAdditions() {
+      int result = coordinator.getNumAdditions();
+      for (AbstractWalker worker : workers) {
+         result += worker.getNumAdditions();
+      }
+      return result;
+   }
+
+   @Override
+   public int getNumDeletions() {
+      int result = coordinator.getNumDeletions();
+      for (AbstractWalker worker : workers) {
+         result += worker.getNumDeletions();
+      }
+      return result;
+   }
+
+   @Override
+   public boolean reportChanges() {
+      return coordinator.reportChanges();
+   }
+
+   @Override
+   public void setReportChanges(boolean reportChanges) {
+      coordinator.setReportChanges(reportChanges);
+      for (AbstractWalker worker : workers) {
+         worker.setReportChanges(reportChanges);
+      }
+   }
+
+   @Override
+   public boolean hasChanges() {
+      return !(getNumModifications() == 0 && getNumAdditions() == 0 && getNumDeletions() == 0);
+   }
+
+   /**
+    * Write requested by a worker, which is replayed by the coordinator.
+    */
+   static class DeferredWrite {
+
+      private final Object element;
+
+      private final VisitorContext context;
+
+      DeferredWrite(Object element, VisitorContext context) {
+         this.element = element;
+         this.context = context;
+      }
+   }
+
+   private static class WalkResult {
+
+      private final List<DeferredWrite> writes = new ArrayList<DeferredWrite>();
+
+      private final List<VisitorMessage> messages = new ArrayList<VisitorMessage>();
+   }
+}
@@ -0,0 +1,241 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.walkers;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.walkmod.util.FileManifest;
+
+/**
+ * In-memory cache of the parsed files, shared by the chains of an execution
+ * that enable it, so that each file is parsed once when several chains read
+ * it. The visitors modify the ASTs, so the cache stores a serialized snapshot
+ * of each AST, taken when the file is parsed, and each reader receives its own
+ * copy.
+ *
+ * The entries are identified by the canonical path of the file and validated
+ * with its size and modification time, like the {@link FileManifest}: the
+ * contents are only hashed when the size is the same but the modification
+ * time differs. An entry is also discarded when a file writer rewrites its
+ * file.
+ *
+ * The cache is bounded by the total size of the snapshots, discarding the
+ * least recently used entries first, and the snapshots are softly referenced,
+ * so they can also be released by the garbage collector under memory
+ * pressure. As the chains read the files in the same order, the bound must
+ * hold all the read files to be useful.
+ */
+public class ParseCache {
+
+	/**
+	 * Default bound of the total size, in bytes, of the cached snapshots.
+	 */
+	public static final long DEFAULT_MAX_SIZE = 16 * 1024 * 1024;
+
+	private static final ParseCache INSTANCE = new ParseCache();
+
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	private long size = 0;
+
+	private long maxSize = DEFAULT_MAX_SIZE;
+
+	private volatile boolean enabled = false;
+
+	public static ParseCache getInstance() {
+		return INSTANCE;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+		if (!enabled) {
+			clear();
+			setMaxSize(DEFAULT_MAX_SIZE);
+		}
+	}
+
+	public synchronized long getMaxSize() {
+		return maxSize;
+	}
+
+	public synchronized void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+		evict();
+	}
+
+	/**
+	 * @param path
+	 *            canonical path of the file
+	 * @param variant
+	 *            identifies how the file is parsed (e.g. parser and encoding)
+	 * @param file
+	 *            the file, to check if it has changed since it was parsed
+	 * @return the serialized AST, or null if there is no valid one
+	 */
+	public byte[] get(String path, String variant, File file) {
+		return get(path, variant, file, null);
+	}
+
+	/**
+	 * @param path
+	 *            canonical path of the file
+	 * @param variant
+	 *            identifies how the file is parsed (e.g. parser and encoding)
+	 * @param file
+	 *            the file, to check if it has changed since it was parsed
+	 * @param content
+	 *            contents of the file, if they have already been read, to
+	 *            compare them instead of reading the file
+	 * @return the serialized AST, or null if there is no valid one
+	 */
+	public byte[] get(String path, String variant, File file, byte[] content) {
+		long fileSize = content != null ? content.length : file.length();
+		Entry entry;
+		byte[] snapshot = null;
+		synchronized (this) {
+			entry = entries.get(path);
+			if (entry == null) {
+				return null;
+			}
+			snapshot = entry.snapshot.get();
+			if (snapshot == null || !entry.variant.equals(variant) || entry.fileSize != fileSize) {
+				remove(path);
+				return null;
+			}
+		}
+		if (entry.lastModified != file.lastModified()) {
+			boolean same;
+			if (content != null) {
+				same = entry.hash.equals(FileManifest.hash(content));
+			} else {
+				try {
+					same = entry.hash.equals(FileManifest.hash(file));
+				} catch (IOException e) {
+					same = false;
+				}
+			}
+			if (!same) {
+				synchronized (this) {
+					if (entries.get(path) == entry) {
+						remove(path);
+					}
+				}
+				return null;
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * @param path
+	 *            canonical path of the file
+	 * @param variant
+	 *            identifies how the file is parsed (e.g. parser and encoding)
+	 * @param fileSize
+	 *            size of the parsed file, in bytes
+	 * @param lastModified
+	 *            modification time of the parsed file
+	 * @param hash
+	 *            hash of the parsed file contents
+	 * @param snapshot
+	 *            serialized AST
+	 */
+	public synchronized void put(String path, String variant, long fileSize, long lastModified, String hash,
+			byte[] snapshot) {
+		if (snapshot == null || snapshot.length > maxSize) {
+			return;
+		}
+		remove(path);
+		entries.put(path, new Entry(variant, fileSize, lastModified, hash, snapshot));
+		size += snapshot.length;
+		evict();
+	}
+
+	/**
+	 * Discards the cached AST of a file.
+	 *
+	 * @param file
+	 *            file that has been written
+	 */
+	public void invalidate(File file) {
+		String path;
+		try {
+			path = file.getCanonicalPath();
+		} catch (Exception e) {
+			path = file.getAbsolutePath();
+		}
+		synchronized (this) {
+			remove(path);
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		size = 0;
+	}
+
+	public synchronized int getNumEntries() {
+		return entries.size();
+	}
+
+	private void remove(String path) {
+		Entry entry = entries.remove(path);
+		if (entry != null) {
+			size -= entry.snapshotSize;
+		}
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+		while (size > maxSize && it.hasNext()) {
+			size -= it.next().getValue().snapshotSize;
+			it.remove();
+		}
+	}
+
+	private static class Entry {
+
+		private final String variant;
+
+		private final long fileSize;
+
+		private final long lastModified;
+
+		private final String hash;
+
+		private final int snapshotSize;
+
+		private final SoftReference<byte[]> snapshot;
+
+		public Entry(String variant, long fileSize, long lastModified, String hash, byte[] snapshot) {
+			this.variant = variant;
+			this.fileSize = fileSize;
+			this.lastModified = lastModified;
+			this.hash = hash;
+			this.snapshotSize = snapshot.length;
+			this.snapshot = new SoftReference<byte[]>(snapshot);
+		}
+	}
+}
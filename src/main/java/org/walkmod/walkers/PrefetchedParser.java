@@ -0,0 +1,104 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.walkers;
+
+import java.io.File;
+import java.io.Reader;
+
+import org.walkmod.util.PrefetchingResource;
+
+/**
+ * Parser that reads the files from the contents prefetched by a
+ * {@link PrefetchingResource}. It must be the outermost decorator of the
+ * parser, so that the contents are taken (and released) for every parsed
+ * file: the {@link ContentParser} decorators (e.g. the caches) receive the
+ * contents. The other parsers are not given the contents, because they may
+ * read the files in a different way than a {@link Reader} (e.g. detecting the
+ * encoding), so they always parse the files, as the files without prefetched
+ * contents.
+ *
+ * @param <T>
+ *            AST type
+ */
+public class PrefetchedParser<T> implements Parser<T> {
+
+	private final Parser<T> parser;
+
+	private final PrefetchingResource<?> resource;
+
+	public PrefetchedParser(Parser<T> parser, PrefetchingResource<?> resource) {
+		this.parser = parser;
+		this.resource = resource;
+	}
+
+	/**
+	 * @return the decorated parser
+	 */
+	public Parser<T> getParser() {
+		return parser;
+	}
+
+	@Override
+	public T parse(String text) throws ParseException {
+		return parser.parse(text);
+	}
+
+	@Override
+	public T parse(String text, boolean withoutLocation) throws ParseException {
+		return parser.parse(text, withoutLocation);
+	}
+
+	@Override
+	public T parse(File file) throws ParseException {
+		return parse(parser, file, null, resource.takeContent(file));
+	}
+
+	@Override
+	public T parse(File file, String encoding) throws ParseException {
+		return parse(parser, file, encoding, resource.takeContent(file));
+	}
+
+	@Override
+	public T parse(Reader reader) throws ParseException {
+		return parser.parse(reader);
+	}
+
+	/**
+	 * Parses a file with the contents that have already been read, if any.
+	 * Only the {@link ContentParser} instances receive the contents, the other
+	 * parsers read the file.
+	 *
+	 * @param parser
+	 *            parser of the file
+	 * @param file
+	 *            parsed file
+	 * @param encoding
+	 *            encoding of the file, or null to use the default one
+	 * @param content
+	 *            contents of the file, or null to read them from the file
+	 * @return the AST of the file
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> T parse(Parser<T> parser, File file, String encoding, byte[] content) throws ParseException {
+		if (parser instanceof ContentParser) {
+			return ((ContentParser<T>) parser).parse(file, encoding, content);
+		}
+		if (encoding == null) {
+			return parser.parse(file);
+		}
+		return parser.parse(file, encoding);
+	}
+}
@@ -0,0 +1,167 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.walkers;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Insertion ordered collection of result nodes, which compares nodes by
+ * identity. Adding a node that is already in the collection moves it to the
+ * end. Additions, removals and lookups are constant-time. The nodes are also
+ * indexed by class, to find merge candidates without scanning all of them.
+ */
+class ResultNodeCollection extends AbstractCollection<Object> {
+
+	private final Map<IdentityKey, Object> nodes = new LinkedHashMap<IdentityKey, Object>();
+
+	private final Map<Class<?>, Map<IdentityKey, Object>> nodesByType = new HashMap<Class<?>, Map<IdentityKey, Object>>();
+
+	private List<Object> snapshot = null;
+
+	@Override
+	public boolean add(Object node) {
+		IdentityKey key = new IdentityKey(node);
+		nodes.remove(key);
+		nodes.put(key, node);
+		if (node != null) {
+			Map<IdentityKey, Object> sameType = nodesByType.get(node.getClass());
+			if (sameType == null) {
+				sameType = new LinkedHashMap<IdentityKey, Object>();
+				nodesByType.put(node.getClass(), sameType);
+			}
+			sameType.remove(key);
+			sameType.put(key, node);
+		}
+		snapshot = null;
+		return true;
+	}
+
+	@Override
+	public boolean remove(Object node) {
+		IdentityKey key = new IdentityKey(node);
+		boolean removed = nodes.containsKey(key);
+		if (removed) {
+			nodes.remove(key);
+			removeFromType(key);
+			snapshot = null;
+		}
+		return removed;
+	}
+
+	private void removeFromType(IdentityKey key) {
+		if (key.node != null) {
+			Map<IdentityKey, Object> sameType = nodesByType.get(key.node.getClass());
+			if (sameType != null) {
+				sameType.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Returns a read-only view, in insertion order, of the nodes whose class is
+	 * exactly the given one.
+	 */
+	public Collection<Object> getNodesOfType(Class<?> type) {
+		Map<IdentityKey, Object> sameType = nodesByType.get(type);
+		if (sameType == null) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableCollection(sameType.values());
+	}
+
+	@Override
+	public boolean contains(Object node) {
+		return nodes.containsKey(new IdentityKey(node));
+	}
+
+	@Override
+	public int size() {
+		return nodes.size();
+	}
+
+	@Override
+	public void clear() {
+		nodes.clear();
+		nodesByType.clear();
+		snapshot = null;
+	}
+
+	@Override
+	public Iterator<Object> iterator() {
+		final Iterator<Map.Entry<IdentityKey, Object>> it = nodes.entrySet().iterator();
+		return new Iterator<Object>() {
+
+			private IdentityKey last = null;
+
+			@Override
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+
+			@Override
+			public Object next() {
+				Map.Entry<IdentityKey, Object> entry = it.next();
+				last = entry.getKey();
+				return entry.getValue();
+			}
+
+			@Override
+			public void remove() {
+				it.remove();
+				removeFromType(last);
+				snapshot = null;
+			}
+		};
+	}
+
+	/**
+	 * Returns an unmodifiable copy of the nodes, which is reused until the
+	 * collection changes.
+	 */
+	public Collection<Object> snapshot() {
+		if (snapshot == null) {
+			snapshot = Collections.unmodifiableList(new ArrayList<Object>(nodes.values()));
+		}
+		return snapshot;
+	}
+
+	private static final class IdentityKey {
+
+		private final Object node;
+
+		private IdentityKey(Object node) {
+			this.node = node;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(node);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof IdentityKey && ((IdentityKey) o).node == node;
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.walkers;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Strategies to track the elements that a walker has already visited.
+ */
+public enum VisitedElementsScope {
+
+	/**
+	 * The elements are tracked during the whole chain execution.
+	 */
+	CHAIN,
+
+	/**
+	 * The elements are forgotten after processing each element of the
+	 * resource (e.g. each file).
+	 */
+	RESOURCE,
+
+	/**
+	 * The elements are tracked while they are reachable from other objects.
+	 */
+	WEAK;
+
+	public Set<Object> createSet() {
+		if (this == WEAK) {
+			return Collections.newSetFromMap(new WeakHashMap<Object, Boolean>());
+		}
+		return new HashSet<Object>();
+	}
+
+	public boolean isClearedPerResource() {
+		return this == RESOURCE;
+	}
+
+	/**
+	 * @param scope
+	 *            name of the scope, in any case
+	 * @return the scope
+	 * @throws IllegalArgumentException
+	 *             if it is not a valid scope
+	 */
+	public static VisitedElementsScope fromString(String scope) {
+		if (scope != null) {
+			try {
+				return valueOf(scope.trim().toUpperCase(Locale.ENGLISH));
+			} catch (IllegalArgumentException e) {
+				// reported below with the valid scopes
+			}
+		}
+		StringBuilder valid = new StringBuilder();
+		for (VisitedElementsScope value : values()) {
+			if (valid.length() > 0) {
+				valid.append(", ");
+			}
+			valid.append(value.name().toLowerCase(Locale.ENGLISH));
+		}
+		throw new IllegalArgumentException("Invalid visited elements scope: " + scope + ". The valid scopes are "
+				+ valid);
+	}
+}
@@ -20,13 +20,13 @@ import java.io.File;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Map;
+import java.util.Set;
 
 import org.walkmod.conf.entities.ChainConfig;
 
@@ -38,6 +38,10 @@ public class VisitorContext extends HashMap<String, Object> {
 
 	private ChainConfig ac = null;
 
+	private VisitorContext parent = null;
+
+	private Set<Object> removedKeys = null;
+
 	public VisitorContext() {
 	}
 
@@ -46,62 +50,262 @@ public class VisitorContext extends HashMap<String, Object> {
 		this.ac = ac;
 	}
 
-	public boolean addResultNode(Object node) {
-		Collection<Object> collection = getOrCreateAstResultNodes();
-		Iterator<Object> it = collection.iterator();
-		while (it.hasNext()) {
-			if (it.next() == node) {
-				it.remove();
+	/**
+	 * Creates a context that reads through the entries of a parent context.
+	 * The writes and removals are only applied to the new context. The result
+	 * nodes and the visitor messages are not inherited.
+	 * 
+	 * @param ac
+	 *            chain configuration
+	 * @param parent
+	 *            context whose entries are visible from the new one.
+	 */
+	public VisitorContext(ChainConfig ac, VisitorContext parent) {
+		this(ac);
+		this.parent = parent;
+	}
+
+	private boolean isInherited(Object key) {
+		return parent != null && !KEY_AST_RESULT_NODES.equals(key)
+				&& (removedKeys == null || !removedKeys.contains(key));
+	}
+
+	@Override
+	public Object get(Object key) {
+		Object value = super.get(key);
+		if (value == null && isInherited(key) && !super.containsKey(key)) {
+			return parent.get(key);
+		}
+		return value;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return super.containsKey(key) || (isInherited(key) && parent.containsKey(key));
+	}
+
+	/**
+	 * Merges the own entries with the inherited ones. Only used by the
+	 * operations that need all the entries.
+	 */
+	private Map<String, Object> getVisibleEntries() {
+		Map<String, Object> result = new HashMap<String, Object>();
+		for (Map.Entry<String, Object> entry : parent.entrySet()) {
+			if (isInherited(entry.getKey())) {
+				result.put(entry.getKey(), entry.getValue());
 			}
 		}
-		return collection.add(node);
+		for (Map.Entry<String, Object> entry : super.entrySet()) {
+			result.put(entry.getKey(), entry.getValue());
+		}
+		return result;
+	}
+
+	@Override
+	public int size() {
+		if (parent == null) {
+			return super.size();
+		}
+		return getVisibleEntries().size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		if (parent == null) {
+			return super.isEmpty();
+		}
+		return getVisibleEntries().isEmpty();
+	}
+
+	@Override
+	public boolean containsValue(Object value) {
+		if (parent == null) {
+			return super.containsValue(value);
+		}
+		return getVisibleEntries().containsValue(value);
+	}
+
+	@Override
+	public Set<String> keySet() {
+		if (parent == null) {
+			return super.keySet();
+		}
+		return Collections.unmodifiableSet(getVisibleEntries().keySet());
+	}
+
+	@Override
+	public Collection<Object> values() {
+		if (parent == null) {
+			return super.values();
+		}
+		return Collections.unmodifiableCollection(getVisibleEntries().values());
+	}
+
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+		if (parent == null) {
+			return super.entrySet();
+		}
+		return Collections.unmodifiableSet(getVisibleEntries().entrySet());
+	}
+
+	public boolean addResultNode(Object node) {
+		return getOrCreateAstResultNodes().add(node);
+	}
+
+	public boolean removeResultNode(Object node) {
+		ResultNodeCollection result = getAstResultNodeListOrNull();
+		return result != null && result.remove(node);
+	}
+
+	/**
+	 * Returns a read-only view of the result nodes whose class is exactly the
+	 * given one, in insertion order.
+	 */
+	public Collection<Object> getResultNodesOfType(Class<?> type) {
+		ResultNodeCollection result = getAstResultNodeListOrNull();
+		return result != null ? result.getNodesOfType(type) : Collections.emptyList();
 	}
 
 	public boolean addAllResultNodes(Collection<Object> nodes) {
-		Collection<Object> collection = getOrCreateAstResultNodes();
+		ResultNodeCollection collection = getOrCreateAstResultNodes();
 		boolean added = false;
 		for (Object o : nodes) {
-			added = addResultNode(o) || added;
+			added = collection.add(o) || added;
 		}
 		return added;
 	}
 
-	private Collection<Object> getOrCreateAstResultNodes() {
-		Collection<Object> result = getAstResultNodeListOrNull();
+	private ResultNodeCollection getOrCreateAstResultNodes() {
+		ResultNodeCollection result = getAstResultNodeListOrNull();
 		if (result == null) {
-			result = new LinkedList<Object>();
+			result = new ResultNodeCollection();
 			super.put(KEY_AST_RESULT_NODES, result);
 		}
 		return result;
 	}
 
-	@SuppressWarnings("unchecked")
-	private Collection<Object> getAstResultNodeListOrNull() {
-		return (Collection<Object>) super.get(KEY_AST_RESULT_NODES);
+	private ResultNodeCollection getAstResultNodeListOrNull() {
+		return (ResultNodeCollection) super.get(KEY_AST_RESULT_NODES);
 	}
 
 	@Override
 	public Object remove(Object key) {
 		if (!KEY_AST_RESULT_NODES.equals(key)) {
-			return super.remove(key);
+			if (parent == null) {
+				return super.remove(key);
+			}
+			Object previous = get(key);
+			super.remove(key);
+			hide(key);
+			return previous;
+		}
+		return null;
+	}
+
+	/**
+	 * Hides an inherited entry from this context.
+	 */
+	private void hide(Object key) {
+		if (isInherited(key) && parent.containsKey(key)) {
+			if (removedKeys == null) {
+				removedKeys = new HashSet<Object>();
+			}
+			removedKeys.add(key);
+		}
+	}
+
+	@Override
+	public void putAll(Map<? extends String, ? extends Object> m) {
+		for (Map.Entry<? extends String, ? extends Object> entry : m.entrySet()) {
+			put(entry.getKey(), entry.getValue());
+		}
+	}
+
+	@Override
+	public void clear() {
+		if (parent != null) {
+			for (String key : parent.keySet()) {
+				hide(key);
+			}
+		}
+		super.clear();
+	}
+
+	/*
+	 * The following methods are also declared by Map since Java 8, and the
+	 * HashMap implementations do not use get, put or remove, so they would
+	 * ignore the parent entries.
+	 */
+
+	public Object getOrDefault(Object key, Object defaultValue) {
+		Object value = get(key);
+		if (value != null || containsKey(key)) {
+			return value;
+		}
+		return defaultValue;
+	}
+
+	public Object putIfAbsent(String key, Object value) {
+		Object current = get(key);
+		if (current == null) {
+			current = put(key, value);
+		}
+		return current;
+	}
+
+	public boolean remove(Object key, Object value) {
+		if (containsKey(key)) {
+			Object current = get(key);
+			if (current == null ? value == null : current.equals(value)) {
+				remove(key);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public Object replace(String key, Object value) {
+		if (containsKey(key)) {
+			return put(key, value);
 		}
 		return null;
 	}
 
+	public boolean replace(String key, Object oldValue, Object newValue) {
+		if (containsKey(key)) {
+			Object current = get(key);
+			if (current == null ? oldValue == null : current.equals(oldValue)) {
+				put(key, newValue);
+				return true;
+			}
+		}
+		return false;
+	}
+
 	@Override
 	public Object put(String key, Object value) {
 		if (!KEY_AST_RESULT_NODES.equals(key)) {
-			return super.put(key, value);
+			if (parent == null) {
+				return super.put(key, value);
+			}
+			Object previous = get(key);
+			super.put(key, value);
+			if (removedKeys != null) {
+				removedKeys.remove(key);
+			}
+			return previous;
 		}
 		return null;
 	}
 
-	@SuppressWarnings("unchecked")
+	/**
+	 * Returns an unmodifiable copy of the result nodes. The copy is shared by
+	 * the consecutive calls until the result nodes change.
+	 */
 	public Collection<Object> getResultNodes() {
-		Collection<Object> result = getAstResultNodeListOrNull();
-		return result != null
-				? Collections.unmodifiableCollection(new ArrayList<Object>(result))
-				: Collections.EMPTY_LIST;
+		ResultNodeCollection result = getAstResultNodeListOrNull();
+		return result != null ? result.snapshot() : Collections.emptyList();
 	}
 
 	public boolean hasResultNodes() {
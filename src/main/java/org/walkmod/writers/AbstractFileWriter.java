@@ -16,20 +16,23 @@
 
 package org.walkmod.writers;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.io.StringReader;
 import java.io.Writer;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.log4j.Logger;
 import org.walkmod.ChainWriter;
+import org.walkmod.util.PathFilter;
 import org.walkmod.walkers.AbstractWalker;
+import org.walkmod.walkers.ParseCache;
 import org.walkmod.walkers.VisitorContext;
 
 public abstract class AbstractFileWriter implements ChainWriter {
@@ -42,6 +45,8 @@ public abstract class AbstractFileWriter implements ChainWriter {
 
     private String normalizedOutputDirectory;
 
+    private volatile PathFilter pathFilter;
+
     private String encoding = "UTF-8";
 
     private String platform = null;
@@ -52,6 +57,8 @@ public abstract class AbstractFileWriter implements ChainWriter {
     
     private boolean createdEmptyFile = false;
 
+    private boolean skipUnchanged = true;
+
     private static Logger log = Logger.getLogger(AbstractFileWriter.class);
 
     public void setOutputDirectory(String outputDirectory) {
@@ -60,6 +67,7 @@ public abstract class AbstractFileWriter implements ChainWriter {
             this.outputDirectory.mkdir();
         }
         normalizedOutputDirectory = FilenameUtils.normalize(this.outputDirectory.getAbsolutePath(), true);
+        pathFilter = null;
     }
 
     public File getOutputDirectory() {
@@ -68,47 +76,63 @@ public abstract class AbstractFileWriter implements ChainWriter {
 
     public abstract File createOutputDirectory(Object o);
 
-    protected boolean isValid(File out) throws IOException {
-
-        boolean write = true;
-        if (out != null) {
-            String aux = FilenameUtils.normalize(out.getCanonicalPath(), true);
-            if (excludes != null) {
-                for (int i = 0; i < excludes.length && write; i++) {
-                    if (!excludes[i].startsWith(normalizedOutputDirectory)) {
-                        excludes[i] = normalizedOutputDirectory + "/" + excludes[i];
-                        if (excludes[i].endsWith("\\*\\*")) {
-                            excludes[i] = excludes[i].substring(0, excludes[i].length() - 2);
-                        }
-                    }
-                    write = !(excludes[i].startsWith(aux) || FilenameUtils.wildcardMatch(aux, excludes[i]));
-                }
-            }
-            if (includes != null && write) {
-                write = false;
-                for (int i = 0; i < includes.length && !write; i++) {
-                    if (!includes[i].startsWith(normalizedOutputDirectory)) {
-                        includes[i] = normalizedOutputDirectory + "/" + includes[i];
-                        if (includes[i].endsWith("\\*\\*")) {
-                            includes[i] = includes[i].substring(0, includes[i].length() - 2);
-                        }
-                    }
+    /**
+     * @return the include/exclude filter of the written files, compiled for
+     *         the current output directory, includes and excludes.
+     */
+    public PathFilter getPathFilter() {
+        PathFilter result = pathFilter;
+        if (result == null) {
+            result = PathFilter.compile(normalizedOutputDirectory, includes, excludes);
+            pathFilter = result;
+        }
+        return result;
+    }
 
-                    write = includes[i].startsWith(aux) || FilenameUtils.wildcardMatch(aux, includes[i]);
-                }
-            }
+    /**
+     * Checks the includes and excludes of the writer with
+     * {@link PathFilter#accept(String)}. Unlike in previous versions, an
+     * include or exclude without wildcards also selects the files inside it
+     * (e.g. "src/main" includes "src/main/A.java"), and a pattern that only
+     * starts with the path of the file (e.g. "src/main/A.java.bak" for
+     * "src/main/A.java") no longer selects it.
+     * 
+     * @param out
+     *            file to write
+     * @return if the file can be written
+     */
+    protected boolean isValid(File out) throws IOException {
+        if (out == null) {
+            return true;
         }
-        return write;
+        PathFilter filter = getPathFilter();
+        return filter.isAcceptAll() || filter.accept(FilenameUtils.normalize(out.getCanonicalPath(), true));
     }
     
     public boolean requiresToAppend(VisitorContext vc){
         return vc.get("append") == null || !Boolean.TRUE.equals(vc.get("append"));   
     }
     
+    /**
+     * Opens the file to write a content that is not the same as the current
+     * one. The shared parse cache discards the AST of the file.
+     */
     protected Writer getWriter(File out) throws Exception{
+        ParseCache cache = ParseCache.getInstance();
+        if (cache.isEnabled()) {
+            cache.invalidate(out);
+        }
         return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(out), getEncoding()));
     }
     
+    /**
+     * Called after writing the content of an element with the writer returned
+     * by {@link #getWriter(File)}. By default, it is closed.
+     */
+    protected void releaseWriter(Writer writer) throws IOException {
+        writer.close();
+    }
+
     protected File getOutputFile(Object n, VisitorContext vc){
         File out = null;
         if (vc != null) {
@@ -139,19 +163,20 @@ public abstract class AbstractFileWriter implements ChainWriter {
                     vc.remove("outFile");
                     if (content != null && !"".equals(content)) {
                         char endLineChar = getEndLineChar(out);
-                        writer = getWriter(out);
-                        if (requiresToAppend(vc)) {
-                            append(content, writer, endLineChar); 
+                        boolean append = requiresToAppend(vc);
+                        if (skipUnchanged && hasContent(out, content, endLineChar, append)) {
+                            Summary.getInstance().addUnchangedFile(out);
+                            log.debug(out.getPath() + " unchanged ");
                         } else {
-                            write(content, writer, endLineChar);
+                            writer = getWriter(out);
+                            render(content, writer, endLineChar, append);
+                            Summary.getInstance().addFile(out);
+                            log.debug(out.getPath() + " written ");
                         }
-                        Summary.getInstance().addFile(out);
-                        log.debug(out.getPath() + " written ");
                     }
                 } finally {
                     if (writer != null) {
-                        writer.close();
-
+                        releaseWriter(writer);
                     }
                 }
             } else {
@@ -165,9 +190,15 @@ public abstract class AbstractFileWriter implements ChainWriter {
         }
     }
 
-    public void write(String content, Writer writer, char endLineChar) throws IOException {
-        char[] buffer = content.toCharArray();
+    private void render(String content, Writer writer, char endLineChar, boolean append) throws IOException {
+        if (append) {
+            append(content, writer, endLineChar);
+        } else {
+            write(content, writer, endLineChar);
+        }
+    }
 
+    public void write(String content, Writer writer, char endLineChar) throws IOException {
         String endLine = "\n";
         if (endLineChar == '\r') {
             endLine = "\r\n";
@@ -181,31 +212,136 @@ public abstract class AbstractFileWriter implements ChainWriter {
                 endLine = "\r";
             }
         }
-        for (int i = 0; i < buffer.length; i++) {
-            if (buffer[i] == '\n') {
-                writer.write(endLine);
-            } else if (buffer[i] == '\r') {
-                writer.write(endLine);
-                if (i + 1 < buffer.length && buffer[i + 1] == '\n') {
-                    i++;
+        writeLines(content, writer, endLine);
+    }
+
+    /**
+     * Writes the content with the given line ending and a line ending after
+     * the last line.
+     */
+    public void append(String content, Writer writer, char endLineChar) throws IOException {
+        String endLine = "\n";
+        if (endLineChar == '\r') {
+            endLine = "\r\n";
+        }
+        writeLines(content, writer, endLine);
+        int length = content.length();
+        if (length > 0 && content.charAt(length - 1) != '\n' && content.charAt(length - 1) != '\r') {
+            writer.write(endLine);
+        }
+    }
+
+    /**
+     * Writes the content replacing its line breaks (\n, \r\n or \r) with the
+     * given line ending. The text between the line breaks that must be
+     * replaced is written in bulk, so the content is written at once if it
+     * already uses the line ending.
+     */
+    private static void writeLines(String content, Writer writer, String endLine) throws IOException {
+        int length = content.length();
+        int start = 0;
+        int i = 0;
+        while (i < length) {
+            char c = content.charAt(i);
+            if (c == '\n' || c == '\r') {
+                int breakLength = 1;
+                if (c == '\r' && i + 1 < length && content.charAt(i + 1) == '\n') {
+                    breakLength = 2;
+                }
+                if (breakLength != endLine.length() || !content.regionMatches(i, endLine, 0, breakLength)) {
+                    writer.write(content, start, i - start);
+                    writer.write(endLine);
+                    start = i + breakLength;
                 }
+                i += breakLength;
             } else {
-                writer.write(buffer[i]);
+                i++;
             }
         }
+        if (start < length) {
+            writer.write(content, start, length - start);
+        }
+    }
 
+    /**
+     * Checks if a file already has the content that would be written, so that
+     * it is not rewritten. The content is rendered and encoded into a stream
+     * that compares it in blocks with the file, without copying it.
+     * 
+     * @param out
+     *            file where the content is written
+     * @param content
+     *            content to write, before replacing its line endings
+     * @param endLineChar
+     *            line ending of the file
+     * @param append
+     *            if the content is written as in {@link #append} instead of
+     *            {@link #write}
+     * @return true if the file exists and has the same content
+     */
+    protected boolean hasContent(File out, String content, char endLineChar, boolean append) throws IOException {
+        if (!out.isFile()) {
+            return false;
+        }
+        ComparingOutputStream comparator = new ComparingOutputStream(new FileInputStream(out));
+        try {
+            Writer writer = new OutputStreamWriter(comparator, getEncoding());
+            render(content, writer, endLineChar, append);
+            writer.flush();
+            return comparator.isSame();
+        } finally {
+            comparator.close();
+        }
     }
 
-    public void append(String content, Writer writer, char endLineChar) throws IOException {
-        BufferedReader reader = new BufferedReader(new StringReader(content));
-        String line = reader.readLine();
-        String endLine = "\n";
-        if (endLineChar == '\r') {
-            endLine = "\r\n";
+    /**
+     * Output stream that compares the written bytes with the ones of an input
+     * stream. Once they differ, the rest of the bytes are ignored.
+     */
+    private static class ComparingOutputStream extends OutputStream {
+
+        private final InputStream expected;
+
+        private final byte[] buffer = new byte[8192];
+
+        private boolean same = true;
+
+        public ComparingOutputStream(InputStream expected) {
+            this.expected = expected;
         }
-        while (line != null) {
-            writer.append(line + endLine);
-            line = reader.readLine();
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (same && len > 0) {
+                int read = expected.read(buffer, 0, Math.min(len, buffer.length));
+                if (read < 0) {
+                    same = false;
+                } else {
+                    for (int i = 0; i < read && same; i++) {
+                        same = buffer[i] == b[off + i];
+                    }
+                    off += read;
+                    len -= read;
+                }
+            }
+        }
+
+        /**
+         * @return true if the written bytes are the same as all the bytes of
+         *         the input stream
+         */
+        public boolean isSame() throws IOException {
+            return same && expected.read() == -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            expected.close();
         }
     }
 
@@ -264,12 +400,8 @@ public abstract class AbstractFileWriter implements ChainWriter {
 
     @Override
     public void setExcludes(String[] excludes) {
-        if (excludes != null && System.getProperty("os.name").toLowerCase().contains("windows")) {
-            for (int i = 0; i < excludes.length; i++) {
-                excludes[i] = FilenameUtils.normalize(excludes[i], true);
-            }
-        }
         this.excludes = excludes;
+        pathFilter = null;
     }
 
     @Override
@@ -279,12 +411,8 @@ public abstract class AbstractFileWriter implements ChainWriter {
 
     @Override
     public void setIncludes(String[] includes) {
-        if (includes != null && System.getProperty("os.name").toLowerCase().contains("windows")) {
-            for (int i = 0; i < includes.length; i++) {
-                includes[i] = FilenameUtils.normalize(includes[i], true);
-            }
-        }
         this.includes = includes;
+        pathFilter = null;
     }
 
     @Override
@@ -305,4 +433,18 @@ public abstract class AbstractFileWriter implements ChainWriter {
         this.platform = platform;
     }
 
+    public boolean isSkipUnchanged() {
+        return skipUnchanged;
+    }
+
+    /**
+     * @param skipUnchanged
+     *            if true (default), the files whose content does not change
+     *            are not rewritten, and they are reported as unchanged in the
+     *            {@link Summary}.
+     */
+    public void setSkipUnchanged(boolean skipUnchanged) {
+        this.skipUnchanged = skipUnchanged;
+    }
+
 }
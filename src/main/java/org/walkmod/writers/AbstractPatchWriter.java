@@ -15,16 +15,59 @@
   along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
 package org.walkmod.writers;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
+import org.walkmod.patches.NdjsonPatchFormatter;
+import org.walkmod.patches.Patch;
+import org.walkmod.patches.PatchFormat;
+import org.walkmod.patches.PatchFormatter;
+import org.walkmod.patches.Patches;
+import org.walkmod.patches.RawPatchFormatter;
 import org.walkmod.walkers.VisitorContext;
 
+/**
+ * Writer of the patches of the modified files. All the patches of a chain are
+ * appended to the same patch file through a single buffered stream, which is
+ * opened with the first patch and closed with the writer.
+ *
+ * The patch file can be compressed while it is written (see
+ * {@link #setPatchCompression(String)}): as a gzip stream, or as a zip archive
+ * with an entry for the patch of each file. As the plain patch file, both are
+ * appended when they already exist, so the chains can share them.
+ *
+ * The subclasses can return the patches of each file with
+ * {@link #getPatches(Object, VisitorContext)}, or its original and revised
+ * texts, so that they are written directly in the patch file instead of being
+ * formatted as a string.
+ */
 public abstract class AbstractPatchWriter extends AbstractFileWriter {
 
+	public static final String NO_COMPRESSION = "none";
+
+	public static final String GZIP_COMPRESSION = "gzip";
+
+	public static final String ZIP_COMPRESSION = "zip";
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
 	private boolean patchPerChange = true;
 
 	private boolean patchPerFile = true;
@@ -33,6 +76,20 @@ public abstract class AbstractPatchWriter extends AbstractFileWriter {
 
 	private String cause = "walkmod";
 
+	private String patchFile = "walkmod.patch";
+
+	private String patchCompression = NO_COMPRESSION;
+
+	private int flushInterval = 0;
+
+	private Writer patchWriter;
+
+	private ZipOutputStream zipStream;
+
+	private Set<String> entries;
+
+	private int pendingPatches = 0;
+
 	@Override
 	public File createOutputDirectory(Object o) {
 		return null;
@@ -43,9 +100,288 @@ public abstract class AbstractPatchWriter extends AbstractFileWriter {
 		return true;
 	}
 
+	/**
+	 * The patch is not written in the source file, so it is never compared
+	 * with it.
+	 */
+	@Override
+	protected boolean hasContent(File out, String content, char endLineChar, boolean append) {
+		return false;
+	}
+
+	/**
+	 * The patches of different files are never interleaved.
+	 */
+	@Override
+	public synchronized void write(Object n, VisitorContext vc) throws Exception {
+		List<Patch> patches = getPatches(n, vc);
+		String originalText = null;
+		String revisedText = null;
+		if (patches == null) {
+			originalText = getOriginalText(n, vc);
+			if (originalText != null) {
+				revisedText = getRevisedText(n, vc);
+			}
+			if (revisedText == null) {
+				super.write(n, vc);
+				return;
+			}
+		}
+		File out = getOutputFile(n, vc);
+		if (out != null && isValid(out)) {
+			PatchOutput output = new PatchOutput(out);
+			try {
+				if (patches != null) {
+					if (!patches.isEmpty()) {
+						writePatches(getLocation(out), patches, output.open());
+					}
+				} else {
+					writeDiff(getLocation(out), originalText, revisedText, output);
+				}
+			} finally {
+				output.release();
+			}
+		}
+	}
+
+	/**
+	 * Returns the patches of an element, which are written with the patch
+	 * format of the writer.
+	 *
+	 * @return the patches of the element, or null (default) to write the
+	 *         content returned by {@link #getContent(Object, VisitorContext)}
+	 */
+	protected List<Patch> getPatches(Object n, VisitorContext vc) throws Exception {
+		return null;
+	}
+
+	/**
+	 * Returns the original text of an element whose patch is the diff of the
+	 * whole file, together with {@link #getRevisedText(Object, VisitorContext)}.
+	 *
+	 * @return the original text, or null (default) to write the content
+	 *         returned by {@link #getContent(Object, VisitorContext)}
+	 */
+	protected String getOriginalText(Object n, VisitorContext vc) throws Exception {
+		return null;
+	}
+
+	/**
+	 * @return the revised text of an element whose original text is not null
+	 */
+	protected String getRevisedText(Object n, VisitorContext vc) throws Exception {
+		return null;
+	}
+
+	/**
+	 * Writes the diff of a whole file. The raw diff is generated directly in
+	 * the patch file, and with the other formats it is the diff of a single
+	 * patch. Nothing is written if the texts have the same lines.
+	 */
+	private void writeDiff(String location, String originalText, String revisedText, PatchOutput output)
+			throws IOException {
+		PatchFormatter formatter = getPatchFormatter();
+		if (formatter instanceof RawPatchFormatter) {
+			Patches.generatePatch(originalText, revisedText, location, output);
+			if (output.isOpen()) {
+				output.append('\n');
+			}
+		} else {
+			String diff = Patches.generatePatch(originalText, revisedText, location);
+			if (diff.length() > 0) {
+				String[] lines = originalText.split("\n");
+				Patch patch = new Patch(diff, 1, 1, lines.length, lines[lines.length - 1].length(), getCause(),
+						location, false);
+				writePatches(location, Collections.singletonList(patch), output.open());
+			}
+		}
+	}
+
+	/**
+	 * Writes the patches of a file with the patch format. The ndjson patches
+	 * are streamed into the writer, and the other formats are written as the
+	 * string of their formatter.
+	 */
+	protected void writePatches(String location, List<Patch> patches, Writer writer) throws IOException {
+		PatchFormatter formatter = getPatchFormatter();
+		if (formatter instanceof NdjsonPatchFormatter) {
+			((NdjsonPatchFormatter) formatter).write(location, patches, writer);
+		} else {
+			writer.write(formatter.format(location, patches));
+		}
+	}
+
+	/**
+	 * @return the formatter of the patch format (raw, json or ndjson)
+	 */
+	public PatchFormatter getPatchFormatter() {
+		return PatchFormat.valueOf(patchFormat.trim().toUpperCase(Locale.ENGLISH)).getFormatter();
+	}
+
+	@Override
+	protected synchronized Writer getWriter(File out) throws Exception {
+		if (patchWriter == null) {
+			patchWriter = openPatchWriter();
+		}
+		if (zipStream != null) {
+			zipStream.putNextEntry(new ZipEntry(getEntryName(out)));
+		}
+		return patchWriter;
+	}
+
+	private Writer openPatchWriter() throws IOException {
+		File file = new File(getPatchFileName()).getCanonicalFile();
+		File parent = file.getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("The directory of the patch " + file.getPath() + " cannot be created");
+		}
+		OutputStream os;
+		if (GZIP_COMPRESSION.equals(patchCompression)) {
+			// the gzip members of the different executions are concatenated
+			os = new GZIPOutputStream(new FileOutputStream(file, true), BUFFER_SIZE);
+		} else if (ZIP_COMPRESSION.equals(patchCompression)) {
+			openZipStream(file);
+			os = zipStream;
+		} else if (NO_COMPRESSION.equals(patchCompression)) {
+			os = new FileOutputStream(file, true);
+		} else {
+			throw new IOException("Unknown patch compression: " + patchCompression);
+		}
+		return new BufferedWriter(new OutputStreamWriter(os, getEncoding()), BUFFER_SIZE);
+	}
+
+	/**
+	 * Opens the zip archive of the patches. A zip archive cannot be appended,
+	 * so the entries of an existing one (e.g. written by a previous chain) are
+	 * copied into the new one.
+	 */
+	private void openZipStream(File file) throws IOException {
+		entries = new HashSet<String>();
+		File previous = null;
+		if (file.exists()) {
+			previous = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+			if (!previous.delete() || !file.renameTo(previous)) {
+				throw new IOException("The patch " + file.getPath() + " cannot be moved to be appended");
+			}
+		}
+		try {
+			zipStream = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+			if (previous != null) {
+				copyEntries(previous);
+			}
+		} catch (IOException e) {
+			// the previous archive is restored
+			if (zipStream != null) {
+				try {
+					zipStream.close();
+				} catch (IOException e2) {
+					// the archive is discarded
+				}
+				zipStream = null;
+			}
+			if (previous != null && (!file.exists() || file.delete())) {
+				previous.renameTo(file);
+			}
+			throw e;
+		}
+		if (previous != null) {
+			previous.delete();
+		}
+	}
+
+	private void copyEntries(File archive) throws IOException {
+		ZipInputStream zis = new ZipInputStream(new BufferedInputStream(new FileInputStream(archive), BUFFER_SIZE));
+		try {
+			byte[] buffer = new byte[8192];
+			ZipEntry entry = zis.getNextEntry();
+			while (entry != null) {
+				entries.add(entry.getName());
+				zipStream.putNextEntry(new ZipEntry(entry.getName()));
+				int read = zis.read(buffer);
+				while (read != -1) {
+					zipStream.write(buffer, 0, read);
+					read = zis.read(buffer);
+				}
+				zipStream.closeEntry();
+				entry = zis.getNextEntry();
+			}
+		} finally {
+			zis.close();
+		}
+	}
+
+	/**
+	 * The zip entry of a patch is the location of the patched file with the
+	 * patch extension.
+	 */
+	private String getEntryName(File out) throws IOException {
+		String path = getLocation(out);
+		String name = path + ".patch";
+		for (int i = 2; !entries.add(name); i++) {
+			name = path + "." + i + ".patch";
+		}
+		return name;
+	}
+
+	/**
+	 * @return the path of the patched file, relative to the working directory
+	 *         and with slashes
+	 */
+	protected String getLocation(File out) throws IOException {
+		String path = out.getCanonicalPath();
+		String base = new File(".").getCanonicalPath() + File.separator;
+		if (path.startsWith(base)) {
+			path = path.substring(base.length());
+		}
+		path = path.replace(File.separatorChar, '/');
+		int colon = path.indexOf(':');
+		if (colon != -1 && colon < path.indexOf('/')) {
+			path = path.substring(colon + 1);
+		}
+		while (path.startsWith("/")) {
+			path = path.substring(1);
+		}
+		return path;
+	}
+
+	/**
+	 * The patch file is kept open until the writer is closed, and it is
+	 * flushed every {@link #getFlushInterval()} patches. With the zip
+	 * compression, the entry of the patch is closed.
+	 */
+	@Override
+	protected synchronized void releaseWriter(Writer writer) throws IOException {
+		if (zipStream != null) {
+			writer.flush();
+			zipStream.closeEntry();
+		}
+		pendingPatches++;
+		if (flushInterval > 0 && pendingPatches >= flushInterval) {
+			writer.flush();
+			pendingPatches = 0;
+		}
+	}
+
 	@Override
-	protected Writer getWriter(File out) throws Exception {
-		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File("walkmod.patch").getCanonicalFile(), true), getEncoding()));
+	public synchronized void flush() throws IOException {
+		if (patchWriter != null) {
+			patchWriter.flush();
+			pendingPatches = 0;
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (patchWriter != null) {
+			try {
+				patchWriter.close();
+			} finally {
+				patchWriter = null;
+				zipStream = null;
+				entries = null;
+				pendingPatches = 0;
+			}
+		}
 	}
 
 	public void setPatchPerChange(boolean patchPerChange) {
@@ -68,6 +404,124 @@ public abstract class AbstractPatchWriter extends AbstractFileWriter {
 		this.cause = cause;
 	}
 
+	public String getPatchFile() {
+		return patchFile;
+	}
+
+	/**
+	 * @param patchFile
+	 *            path of the generated patch. The default value is
+	 *            walkmod.patch. Its directory is created if it does not exist.
+	 */
+	public void setPatchFile(String patchFile) {
+		this.patchFile = patchFile;
+	}
+
+	/**
+	 * @return the path of the patch file, with the extension of its
+	 *         compression (.gz or .zip) if it does not have it
+	 */
+	public String getPatchFileName() {
+		String extension = "";
+		if (GZIP_COMPRESSION.equals(patchCompression)) {
+			extension = ".gz";
+		} else if (ZIP_COMPRESSION.equals(patchCompression)) {
+			extension = ".zip";
+		}
+		if (patchFile.endsWith(extension)) {
+			return patchFile;
+		}
+		return patchFile + extension;
+	}
+
+	public String getPatchCompression() {
+		return patchCompression;
+	}
+
+	/**
+	 * @param patchCompression
+	 *            compression of the patch file: none (default), gzip or zip.
+	 *            The gzip file is appended with a new gzip member, and the
+	 *            zip archive with new entries (named with a number if they
+	 *            already exist).
+	 */
+	public void setPatchCompression(String patchCompression) {
+		this.patchCompression = patchCompression;
+	}
+
+	public int getFlushInterval() {
+		return flushInterval;
+	}
+
+	/**
+	 * @param flushInterval
+	 *            number of patches written between two flushes of the patch
+	 *            file. If it is 0 (default), the patch file is flushed when
+	 *            its buffer is full and when the writer is closed.
+	 */
+	public void setFlushInterval(int flushInterval) {
+		this.flushInterval = flushInterval;
+	}
+
+	/**
+	 * Output of the patch of a file. The patch file (or its zip entry) is only
+	 * opened if something is written.
+	 */
+	private class PatchOutput implements Appendable {
+
+		private final File out;
+
+		private Writer writer;
+
+		public PatchOutput(File out) {
+			this.out = out;
+		}
+
+		public Writer open() throws IOException {
+			if (writer == null) {
+				try {
+					writer = getWriter(out);
+				} catch (IOException e) {
+					throw e;
+				} catch (RuntimeException e) {
+					throw e;
+				} catch (Exception e) {
+					// the subclasses can open it with other errors
+					IOException ioe = new IOException("The patch of " + out.getPath() + " cannot be opened");
+					ioe.initCause(e);
+					throw ioe;
+				}
+			}
+			return writer;
+		}
+
+		public boolean isOpen() {
+			return writer != null;
+		}
+
+		public void release() throws IOException {
+			if (writer != null) {
+				releaseWriter(writer);
+				Summary.getInstance().addFile(out);
+			}
+		}
+
+		@Override
+		public Appendable append(CharSequence csq) throws IOException {
+			return open().append(csq);
+		}
+
+		@Override
+		public Appendable append(CharSequence csq, int start, int end) throws IOException {
+			return open().append(csq, start, end);
+		}
+
+		@Override
+		public Appendable append(char c) throws IOException {
+			return open().append(c);
+		}
+	}
+
 	public boolean isPatchPerChange() {
 		return patchPerChange;
 	}
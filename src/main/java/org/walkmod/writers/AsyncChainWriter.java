@@ -0,0 +1,266 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.writers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.log4j.Logger;
+import org.walkmod.ChainWriter;
+import org.walkmod.walkers.AbstractWalker;
+import org.walkmod.walkers.DispatchTable;
+import org.walkmod.walkers.VisitorContext;
+
+/**
+ * Writer that sends the results to another writer in background threads, so
+ * that the walker does not wait for the file system. The results of the same
+ * file are always written by the same thread, in the same order than they are
+ * received. Each thread has a bounded queue, and the walker waits when it is
+ * full.
+ *
+ * The errors of the decorated writer are reported by {@link #flush()} and
+ * {@link #close()}, which wait until all the queued results are written.
+ * Closing it also closes the decorated writer. The writers that append all
+ * the results to the same file (e.g. the patch writers) must use a single
+ * thread.
+ */
+public class AsyncChainWriter implements ChainWriter {
+
+	/**
+	 * Default number of queued results per thread.
+	 */
+	public static final int DEFAULT_CAPACITY = 64;
+
+	private static Logger log = Logger.getLogger(AsyncChainWriter.class);
+
+	private final ChainWriter writer;
+
+	private final DispatchTable writerDispatch = new DispatchTable("write", false);
+
+	private final Lane[] lanes;
+
+	private Throwable error = null;
+
+	private boolean closed = false;
+
+	/**
+	 * @param writer
+	 *            decorated writer
+	 * @param threads
+	 *            number of background threads
+	 * @param capacity
+	 *            number of results that can be queued per thread
+	 */
+	public AsyncChainWriter(ChainWriter writer, int threads, int capacity) {
+		if (threads < 1 || capacity < 1) {
+			throw new IllegalArgumentException("The number of threads and the queue capacity must be positive");
+		}
+		this.writer = writer;
+		writerDispatch.register(writer.getClass());
+		lanes = new Lane[threads];
+		for (int i = 0; i < threads; i++) {
+			lanes[i] = new Lane(capacity);
+			lanes[i].start();
+		}
+	}
+
+	public ChainWriter getWriter() {
+		return writer;
+	}
+
+	@Override
+	public void write(Object n, VisitorContext vc) throws Exception {
+		if (isClosed()) {
+			throw new IOException("The writer is closed");
+		}
+		Object key = null;
+		if (vc != null) {
+			key = vc.get(AbstractWalker.ORIGINAL_FILE_KEY);
+		}
+		if (key == null) {
+			key = n;
+		}
+		int index = key == null ? 0 : (key.hashCode() & Integer.MAX_VALUE) % lanes.length;
+		try {
+			lanes[index].queue.put(new Write(n, vc));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to write " + key);
+		}
+	}
+
+	/**
+	 * Waits until all the queued results are written.
+	 *
+	 * @throws IOException
+	 *             if some result could not be written since the last flush
+	 */
+	@Override
+	public void flush() throws IOException {
+		CountDownLatch latch = new CountDownLatch(lanes.length);
+		try {
+			for (int i = 0; i < lanes.length; i++) {
+				lanes[i].queue.put(new Barrier(latch));
+			}
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the pending writes");
+		}
+		Throwable failure;
+		synchronized (this) {
+			failure = error;
+			error = null;
+		}
+		if (failure != null) {
+			if (failure instanceof IOException) {
+				throw (IOException) failure;
+			}
+			IOException e = new IOException("The results could not be written: " + failure.getMessage());
+			e.initCause(failure);
+			throw e;
+		}
+		writer.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		try {
+			flush();
+		} finally {
+			for (int i = 0; i < lanes.length; i++) {
+				lanes[i].interrupt();
+			}
+			writer.close();
+		}
+	}
+
+	private synchronized boolean isClosed() {
+		return closed;
+	}
+
+	private synchronized void failed(Throwable e) {
+		if (error == null) {
+			error = e;
+		}
+	}
+
+	@Override
+	public String getPath() {
+		return writer.getPath();
+	}
+
+	@Override
+	public void setPath(String path) {
+		writer.setPath(path);
+	}
+
+	@Override
+	public void setExcludes(String[] excludes) {
+		writer.setExcludes(excludes);
+	}
+
+	@Override
+	public String[] getExcludes() {
+		return writer.getExcludes();
+	}
+
+	@Override
+	public void setIncludes(String[] includes) {
+		writer.setIncludes(includes);
+	}
+
+	@Override
+	public String[] getIncludes() {
+		return writer.getIncludes();
+	}
+
+	private class Write implements Runnable {
+
+		private final Object element;
+
+		private final VisitorContext vc;
+
+		public Write(Object element, VisitorContext vc) {
+			this.element = element;
+			this.vc = vc;
+		}
+
+		@Override
+		public void run() {
+			try {
+				DispatchTable.Invoker[] invokers = writerDispatch.resolve(writer, element);
+				for (int j = 0; j < invokers.length; j++) {
+					invokers[j].invoke(writer, element, vc);
+				}
+			} catch (Throwable e) {
+				if (e instanceof InvocationTargetException && e.getCause() != null) {
+					e = e.getCause();
+				}
+				Object file = vc != null ? vc.get(AbstractWalker.ORIGINAL_FILE_KEY) : null;
+				log.error("Error writing " + (file instanceof File ? ((File) file).getPath() : element), e);
+				failed(e);
+			}
+		}
+	}
+
+	private static class Barrier implements Runnable {
+
+		private final CountDownLatch latch;
+
+		public Barrier(CountDownLatch latch) {
+			this.latch = latch;
+		}
+
+		@Override
+		public void run() {
+			latch.countDown();
+		}
+	}
+
+	private static class Lane extends Thread {
+
+		private final BlockingQueue<Runnable> queue;
+
+		public Lane(int capacity) {
+			super("walkmod-writer");
+			setDaemon(true);
+			queue = new ArrayBlockingQueue<Runnable>(capacity);
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					queue.take().run();
+				}
+			} catch (InterruptedException e) {
+				// the writer has been closed
+			}
+		}
+	}
+}
@@ -16,6 +16,7 @@
 package org.walkmod.writers;
 
 import java.io.File;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -25,8 +26,14 @@ public class Summary {
 
 	private List<File> writtenFiles;
 
+	private List<File> unchangedFiles;
+
+	private List<File> failedFiles;
+
 	private Summary() {
-		writtenFiles = new LinkedList<File>();
+		writtenFiles = Collections.synchronizedList(new LinkedList<File>());
+		unchangedFiles = Collections.synchronizedList(new LinkedList<File>());
+		failedFiles = Collections.synchronizedList(new LinkedList<File>());
 	}
 
 	public static Summary getInstance() {
@@ -38,6 +45,8 @@ public class Summary {
 
 	public void clear() {
 		writtenFiles.clear();
+		unchangedFiles.clear();
+		failedFiles.clear();
 	}
 
 	public List<File> getWrittenFiles() {
@@ -47,4 +56,28 @@ public class Summary {
 	public void addFile(File file) {
 		writtenFiles.add(file);
 	}
+
+	/**
+	 * @return the files that have been processed by a writer but have not been
+	 *         rewritten, because their content was the same.
+	 */
+	public List<File> getUnchangedFiles() {
+		return unchangedFiles;
+	}
+
+	public void addUnchangedFile(File file) {
+		unchangedFiles.add(file);
+	}
+
+	/**
+	 * @return the files that could not be processed, because they could not
+	 *         be parsed or their walk failed.
+	 */
+	public List<File> getFailedFiles() {
+		return failedFiles;
+	}
+
+	public void addFailedFile(File file) {
+		failedFiles.add(file);
+	}
 }
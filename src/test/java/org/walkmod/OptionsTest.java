@@ -73,6 +73,44 @@ public class OptionsTest {
         assertThat(ob.build().isVerbose(), is(false));
     }
 
+    @Test
+    public void parallelism_option_setter_works() {
+        OptionsBuilder ob = OptionsBuilder.options();
+        assertThat(ob.build().getParallelism(), is(1));
+
+        ob.parallelism(4);
+        assertThat(ob.build().getParallelism(), is(4));
+    }
+
+    @Test
+    public void shard_option_setter_works() {
+        OptionsBuilder ob = OptionsBuilder.options();
+        assertThat(ob.build().getShardCount(), is(1));
+
+        ob.shard("2/4");
+        assertThat(ob.build().getShardIndex(), is(2));
+        assertThat(ob.build().getShardCount(), is(4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shard_option_must_be_in_range() {
+        OptionsBuilder.options().shard("5/4");
+    }
+
+    @Test
+    public void incremental_option_setter_works() {
+        OptionsBuilder ob = OptionsBuilder.options();
+        assertThat(ob.build().isIncremental(), is(false));
+
+        ob.incremental(true);
+        assertThat(ob.build().isIncremental(), is(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parallelism_option_must_be_positive() {
+        OptionsBuilder.options().parallelism(0);
+    }
+
     @Test
     public void printErrors_option_setter_works() {
         OptionsBuilder ob = OptionsBuilder.options();
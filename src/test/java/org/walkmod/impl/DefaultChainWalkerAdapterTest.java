@@ -0,0 +1,163 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.walkmod.ChainWriter;
+import org.walkmod.conf.entities.WalkerConfig;
+import org.walkmod.conf.entities.impl.ChainConfigImpl;
+import org.walkmod.conf.entities.impl.ConfigurationImpl;
+import org.walkmod.conf.entities.impl.TransformationConfigImpl;
+import org.walkmod.util.PrefetchingResource;
+import org.walkmod.walkers.AbstractWalker;
+import org.walkmod.walkers.ParallelWalker;
+import org.walkmod.walkers.ParallelWalkerTest;
+import org.walkmod.walkers.VisitorContext;
+
+public class DefaultChainWalkerAdapterTest {
+
+	public static class TestChainWriter implements ChainWriter {
+
+		private String path;
+
+		private String[] excludes;
+
+		private String[] includes;
+
+		@Override
+		public String getPath() {
+			return path;
+		}
+
+		@Override
+		public void setPath(String path) {
+			this.path = path;
+		}
+
+		@Override
+		public void setExcludes(String[] excludes) {
+			this.excludes = excludes;
+		}
+
+		@Override
+		public String[] getExcludes() {
+			return excludes;
+		}
+
+		@Override
+		public void setIncludes(String[] includes) {
+			this.includes = includes;
+		}
+
+		@Override
+		public String[] getIncludes() {
+			return includes;
+		}
+
+		@Override
+		public void write(Object n, VisitorContext vc) throws Exception {
+		}
+
+		@Override
+		public void flush() throws IOException {
+		}
+
+		@Override
+		public void close() throws IOException {
+		}
+	}
+
+	/**
+	 * Configuration whose beans are created by each call, or shared if they
+	 * are singletons.
+	 */
+	private static class TestConfiguration extends ConfigurationImpl {
+
+		private final boolean singletons;
+
+		private final Object visitor = new Object();
+
+		private final AbstractWalker walker = new ParallelWalkerTest.SquareWalker();
+
+		public TestConfiguration(boolean singletons) {
+			this.singletons = singletons;
+		}
+
+		@Override
+		public Object getBean(String name, Map<?, ?> parameters) {
+			if ("walker".equals(name)) {
+				return singletons ? walker : new ParallelWalkerTest.SquareWalker();
+			}
+			return singletons ? visitor : new Object();
+		}
+	}
+
+	private DefaultChainWalkerAdapter prepare(boolean singletons, int parallelism, int prefetch) throws Exception {
+		TestConfiguration configuration = new TestConfiguration(singletons);
+		ChainConfigImpl chainConfig = new ChainConfigImpl(new TransformationConfigImpl("visitor"));
+		chainConfig.setConfiguration(configuration);
+		WalkerConfig walkerConfig = chainConfig.getWalkerConfig();
+		walkerConfig.setType("walker");
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put(DefaultChainWalkerAdapter.PARALLELISM_PARAM, Integer.toString(parallelism));
+		params.put(DefaultChainWalkerAdapter.PREFETCH_PARAM, Integer.toString(prefetch));
+		walkerConfig.setParams(params);
+
+		List<Integer> elements = new ArrayList<Integer>();
+		elements.add(1);
+		DefaultChainAdapter ap = new DefaultChainAdapter();
+		ap.setChainConfig(chainConfig);
+		ap.setResource(new ParallelWalkerTest.ListResource(elements));
+		ap.setChainWriter(new TestChainWriter());
+
+		DefaultChainWalkerAdapter adapter = new DefaultChainWalkerAdapter();
+		adapter.setArchitectureProxy(ap);
+		adapter.setWalkerConfig(walkerConfig);
+		adapter.setWalker((AbstractWalker) configuration.getBean("walker", null));
+		adapter.setWalkerInvocation(new DefaultChainWalkerInvocation());
+		adapter.prepare();
+		return adapter;
+	}
+
+	@Test
+	public void testParallelWalkerWithPrototypeBeans() throws Exception {
+		DefaultChainWalkerAdapter adapter = prepare(false, 3, 0);
+		Assert.assertTrue(adapter.getWalker() instanceof ParallelWalker);
+		Assert.assertEquals(3, ((ParallelWalker) adapter.getWalker()).getParallelism());
+	}
+
+	@Test
+	public void testSingletonBeansAreWalkedSequentially() throws Exception {
+		DefaultChainWalkerAdapter adapter = prepare(true, 3, 0);
+		Assert.assertTrue(adapter.getWalker() instanceof ParallelWalkerTest.SquareWalker);
+	}
+
+	@Test
+	public void testPrefetchCoversThePendingWindow() throws Exception {
+		DefaultChainWalkerAdapter adapter = prepare(true, 3, 2);
+		AbstractWalker walker = (AbstractWalker) adapter.getWalker();
+		Assert.assertTrue(walker.getResource() instanceof PrefetchingResource);
+		Assert.assertEquals(ParallelWalker.getPendingWindow(3),
+				((PrefetchingResource<?>) walker.getResource()).getDepth());
+	}
+}
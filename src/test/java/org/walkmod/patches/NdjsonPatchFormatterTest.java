@@ -0,0 +1,85 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.patches;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NdjsonPatchFormatterTest {
+
+	/**
+	 * Records if the output is flushed or closed.
+	 */
+	private static class TrackingWriter extends StringWriter {
+
+		private int flushes = 0;
+
+		private boolean closed = false;
+
+		@Override
+		public void flush() {
+			flushes++;
+		}
+
+		@Override
+		public void close() throws IOException {
+			closed = true;
+		}
+	}
+
+	private static List<Patch> patches(String location) {
+		return Arrays.asList(new Patch("--- a/" + location + "\n+++ b/" + location, 1, 2, 3, 4, "walkmod", location,
+				false), new Patch("\"quoted\"", 5, 1, 5, 10, "walkmod", location, true));
+	}
+
+	@Test
+	public void testFormat() {
+		NdjsonPatchFormatter formatter = new NdjsonPatchFormatter();
+		Assert.assertEquals("{\"file\":\"A.java\",\"patches\":[{\"diff\":\"--- a/A.java\\n+++ b/A.java\","
+				+ "\"beginLine\":1,\"beginColumn\":2,\"endLine\":3,\"endColumn\":4,\"cause\":\"walkmod\","
+				+ "\"location\":\"A.java\",\"isMultiple\":false},{\"diff\":\"\\\"quoted\\\"\",\"beginLine\":5,"
+				+ "\"beginColumn\":1,\"endLine\":5,\"endColumn\":10,\"cause\":\"walkmod\",\"location\":\"A.java\","
+				+ "\"isMultiple\":true}]}", formatter.format("A.java", patches("A.java")));
+		// the buffer of the thread is reused
+		Assert.assertEquals(formatter.format("B.java", patches("B.java")),
+				formatter.format("B.java", patches("B.java")));
+	}
+
+	@Test
+	public void testWriteStreamsTheSameLinesAsFormat() throws IOException {
+		NdjsonPatchFormatter formatter = new NdjsonPatchFormatter();
+		TrackingWriter first = new TrackingWriter();
+		formatter.write("A.java", patches("A.java"), first);
+		formatter.write("B.java", patches("B.java"), first);
+		Assert.assertEquals(formatter.format("A.java", patches("A.java")) + "\n"
+				+ formatter.format("B.java", patches("B.java")) + "\n", first.toString());
+		Assert.assertEquals(0, first.flushes);
+		Assert.assertFalse(first.closed);
+
+		// a closed output is not touched by the writes of another one
+		first.close();
+		TrackingWriter second = new TrackingWriter();
+		formatter.write("C.java", patches("C.java"), second);
+		Assert.assertEquals(formatter.format("C.java", patches("C.java")) + "\n", second.toString());
+		Assert.assertEquals(0, first.flushes);
+		Assert.assertEquals(0, second.flushes);
+	}
+}
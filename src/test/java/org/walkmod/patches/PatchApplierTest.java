@@ -0,0 +1,157 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.patches;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PatchApplierTest {
+
+	private File directory;
+
+	private File baseDirectory;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("walkmod", "apply").getCanonicalFile();
+		directory.delete();
+		baseDirectory = new File(directory, "project");
+		baseDirectory.mkdirs();
+	}
+
+	@After
+	public void tearDown() {
+		delete(directory);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private static File write(File file, String content) throws IOException {
+		file.getParentFile().mkdirs();
+		OutputStream os = new FileOutputStream(file);
+		try {
+			os.write(content.getBytes("UTF-8"));
+		} finally {
+			os.close();
+		}
+		return file;
+	}
+
+	private static String read(File file) throws IOException {
+		InputStream is = new FileInputStream(file);
+		try {
+			byte[] content = new byte[(int) file.length()];
+			int offset = 0;
+			while (offset < content.length) {
+				offset += is.read(content, offset, content.length - offset);
+			}
+			return new String(content, "UTF-8");
+		} finally {
+			is.close();
+		}
+	}
+
+	private static String lines(String prefix, int count) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 1; i <= count; i++) {
+			sb.append(prefix).append(' ').append(i).append('\n');
+		}
+		return sb.toString();
+	}
+
+	private PatchApplier apply(String patch, int threads) throws Exception {
+		PatchApplier applier = new PatchApplier(baseDirectory, "UTF-8");
+		applier.read(write(new File(directory, "walkmod.patch"), patch));
+		applier.apply(threads);
+		return applier;
+	}
+
+	@Test
+	public void testPatchIsApplied() throws Exception {
+		String original = lines("line", 20);
+		String revised = original.replace("line 5\n", "line five\n").replace("line 15\n", "");
+		File file = write(new File(baseDirectory, "src/A.java"), original);
+		PatchApplier applier = apply(Patches.generatePatch(original, revised, "src/A.java") + "\n", 1);
+		Assert.assertTrue(applier.getConflicts().isEmpty());
+		Assert.assertEquals(1, applier.getPatchedFiles().size());
+		Assert.assertEquals(revised, read(file));
+		// no temporary files are left
+		Assert.assertEquals(1, file.getParentFile().list().length);
+	}
+
+	@Test
+	public void testContextMismatchIsAConflict() throws Exception {
+		String original = lines("line", 20);
+		String revised = original.replace("line 5\n", "line five\n");
+		File file = write(new File(baseDirectory, "A.java"), original.replace("line 4\n", "line four\n"));
+		PatchApplier applier = apply(Patches.generatePatch(original, revised, "A.java") + "\n", 1);
+		Assert.assertTrue(applier.getPatchedFiles().isEmpty());
+		Assert.assertEquals(1, applier.getConflicts().size());
+		Assert.assertTrue(applier.getConflicts().containsKey(file));
+		Assert.assertEquals(original.replace("line 4\n", "line four\n"), read(file));
+	}
+
+	@Test
+	public void testFilesOutsideTheBaseDirectoryAreNotPatched() throws Exception {
+		String original = lines("line", 3);
+		String revised = original.replace("line 2\n", "line two\n");
+		File outside = write(new File(directory, "Outside.java"), original);
+		String patch = Patches.generatePatch(original, revised, "../Outside.java") + "\n"
+				+ Patches.generatePatch(original, revised, outside.getPath()) + "\n";
+		PatchApplier applier = apply(patch, 2);
+		Assert.assertTrue(applier.getPatchedFiles().isEmpty());
+		Assert.assertEquals(1, applier.getConflicts().size());
+		Assert.assertTrue(applier.getConflicts().get(outside).startsWith("the file is outside"));
+		Assert.assertEquals(original, read(outside));
+	}
+
+	@Test
+	public void testFilesArePatchedInParallel() throws Exception {
+		StringBuilder patch = new StringBuilder();
+		File[] files = new File[24];
+		for (int i = 0; i < files.length; i++) {
+			String original = lines("file " + i + " line", 30);
+			String revised = original.replace("line 10\n", "line ten\n").replace("line 25\n", "");
+			files[i] = write(new File(baseDirectory, "src/F" + i + ".java"), original);
+			patch.append(Patches.generatePatch(original, revised, "src/F" + i + ".java")).append('\n');
+		}
+		PatchApplier applier = apply(patch.toString(), 4);
+		Assert.assertTrue(applier.getConflicts().isEmpty());
+		Assert.assertEquals(files.length, applier.getNumFiles());
+		Assert.assertEquals(files.length, applier.getPatchedFiles().size());
+		for (int i = 0; i < files.length; i++) {
+			String original = lines("file " + i + " line", 30);
+			Assert.assertEquals(original.replace("line 10\n", "line ten\n").replace("line 25\n", ""), read(files[i]));
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.patches;
+
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PatchesTest {
+
+	private static final String HEADER = "--- a" + File.separator + "A.java\n+++ b" + File.separator + "A.java\n";
+
+	private static String lines(int from, int to) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = from; i <= to; i++) {
+			if (i > from) {
+				sb.append('\n');
+			}
+			sb.append("line ").append(i);
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void testEmptyTexts() {
+		Assert.assertEquals("", Patches.generatePatch("", "", "A.java"));
+	}
+
+	@Test
+	public void testIdenticalTexts() {
+		Assert.assertEquals("", Patches.generatePatch(lines(1, 20), lines(1, 20), "A.java"));
+		// the trailing line breaks are not lines
+		Assert.assertEquals("", Patches.generatePatch(lines(1, 20), lines(1, 20) + "\n", "A.java"));
+	}
+
+	@Test
+	public void testAllLinesInserted() {
+		Assert.assertEquals(HEADER + "@@ -1,1 +1,3 @@\n-\n+line 1\n+line 2\n+line 3",
+				Patches.generatePatch("", lines(1, 3), "A.java"));
+	}
+
+	@Test
+	public void testAllLinesDeleted() {
+		Assert.assertEquals(HEADER + "@@ -1,3 +1,1 @@\n-line 1\n-line 2\n-line 3\n+",
+				Patches.generatePatch(lines(1, 3), "", "A.java"));
+	}
+
+	@Test
+	public void testHunkHeaders() {
+		String original = lines(1, 30);
+		String revised = original.replace("line 10\n", "line ten\n").replace("line 25\n", "");
+		Assert.assertEquals(HEADER + "@@ -6,9 +6,9 @@\n line 6\n line 7\n line 8\n line 9\n-line 10\n+line ten\n"
+				+ " line 11\n line 12\n line 13\n line 14\n@@ -21,9 +21,8 @@\n line 21\n line 22\n line 23\n line 24\n"
+				+ "-line 25\n line 26\n line 27\n line 28\n line 29", Patches.generatePatch(original, revised, "A.java"));
+	}
+
+	@Test
+	public void testCloseChangesShareTheHunk() {
+		String original = lines(1, 12);
+		String revised = original.replace("line 3\n", "line three\n").replace("line 10\n", "line ten\n");
+		Assert.assertEquals(HEADER + "@@ -1,12 +1,12 @@\n line 1\n line 2\n-line 3\n+line three\n line 4\n line 5\n"
+				+ " line 6\n line 7\n line 8\n line 9\n-line 10\n+line ten\n line 11\n line 12",
+				Patches.generatePatch(original, revised, "A.java"));
+	}
+
+	@Test
+	public void testAppendableOverloadWritesTheSameDiff() throws Exception {
+		String original = lines(1, 30);
+		String revised = original.replace("line 10\n", "line ten\n");
+		StringBuilder sb = new StringBuilder();
+		Patches.generatePatch(original, revised, "A.java", sb);
+		Assert.assertEquals(Patches.generatePatch(original, revised, "A.java"), sb.toString());
+	}
+}
@@ -0,0 +1,146 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.readers;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GitDiffFileReaderTest {
+
+	private File directory;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("walkmod", "git").getCanonicalFile();
+		directory.delete();
+		directory.mkdirs();
+	}
+
+	@After
+	public void tearDown() {
+		delete(directory);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private void write(String path, String content) throws IOException {
+		File file = new File(directory, path);
+		file.getParentFile().mkdirs();
+		FileOutputStream os = new FileOutputStream(file);
+		try {
+			os.write(content.getBytes("UTF-8"));
+		} finally {
+			os.close();
+		}
+	}
+
+	private boolean git(String... args) throws Exception {
+		List<String> command = new LinkedList<String>();
+		command.add("git");
+		command.add("-c");
+		command.add("user.name=walkmod");
+		command.add("-c");
+		command.add("user.email=walkmod@walkmod.com");
+		command.addAll(Arrays.asList(args));
+		ProcessBuilder pb = new ProcessBuilder(command);
+		pb.directory(directory);
+		pb.redirectErrorStream(true);
+		Process process;
+		try {
+			process = pb.start();
+		} catch (IOException e) {
+			// git is not installed
+			return false;
+		}
+		process.getOutputStream().close();
+		while (process.getInputStream().read() != -1) {
+		}
+		return process.waitFor() == 0;
+	}
+
+	@Test
+	public void testParseFileNames() {
+		List<File> files = new LinkedList<File>();
+		GitDiffFileReader.parseFileNames("src/A.java\0src/with space.java\0\0B.java", directory, files);
+		Assert.assertEquals(
+				Arrays.asList(new File(directory, "src/A.java"), new File(directory, "src/with space.java"),
+						new File(directory, "B.java")), files);
+		files.clear();
+		GitDiffFileReader.parseFileNames("", directory, files);
+		Assert.assertTrue(files.isEmpty());
+	}
+
+	@Test
+	public void testChangedAndUntrackedFiles() throws Exception {
+		if (!git("init", "-q")) {
+			return;
+		}
+		write(".gitignore", "*.class\n");
+		write("src/Modified.java", "class Modified {}");
+		write("src/Unchanged.java", "class Unchanged {}");
+		Assert.assertTrue(git("add", "."));
+		Assert.assertTrue(git("commit", "-q", "-m", "initial"));
+		write("src/Modified.java", "class Modified { }");
+		write("src/New.java", "class New {}");
+		write("src/Staged.java", "class Staged {}");
+		write("src/Ignored.class", "");
+		Assert.assertTrue(git("add", "src/Staged.java"));
+
+		GitDiffFileReader reader = new GitDiffFileReader();
+		Assert.assertEquals(
+				new HashSet<File>(Arrays.asList(new File(directory, "src/Modified.java"), new File(directory,
+						"src/New.java"), new File(directory, "src/Staged.java"))),
+				new HashSet<File>(reader.getChangedFiles(directory)));
+
+		reader.setStaged(true);
+		Assert.assertEquals(Arrays.asList(new File(directory, "src/Staged.java")), reader.getChangedFiles(directory));
+	}
+
+	@Test
+	public void testPathsAreRelativeToTheReaderDirectory() throws Exception {
+		if (!git("init", "-q")) {
+			return;
+		}
+		write("README", "readme");
+		Assert.assertTrue(git("add", "."));
+		Assert.assertTrue(git("commit", "-q", "-m", "initial"));
+		write("README", "changed readme");
+		write("module/src/New.java", "class New {}");
+		write("other/New.java", "class New {}");
+
+		File module = new File(directory, "module");
+		GitDiffFileReader reader = new GitDiffFileReader();
+		Assert.assertEquals(Arrays.asList(new File(module, "src/New.java")), reader.getChangedFiles(module));
+	}
+}
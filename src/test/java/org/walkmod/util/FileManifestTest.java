@@ -0,0 +1,131 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileManifestTest {
+
+	private File directory;
+
+	private File manifestFile;
+
+	private File first;
+
+	private File second;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("walkmod", "manifest");
+		directory.delete();
+		directory.mkdirs();
+		manifestFile = new File(directory, ".walkmod/manifest");
+		first = write(new File(directory, "First.java"), "class First {}");
+		second = write(new File(directory, "Second.java"), "class Second {}");
+	}
+
+	@After
+	public void tearDown() {
+		delete(directory);
+	}
+
+	private static File write(File file, String content) throws IOException {
+		FileOutputStream os = new FileOutputStream(file);
+		try {
+			os.write(content.getBytes("UTF-8"));
+		} finally {
+			os.close();
+		}
+		return file.getCanonicalFile();
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	/**
+	 * Lists the files to process with a manifest, as an incremental execution
+	 * does, and saves the manifest afterwards.
+	 */
+	private List<File> execute(String configurationHash, Collection<File> pending) throws Exception {
+		FileManifest manifest = FileManifest.load(manifestFile, configurationHash);
+		FileResource resource = new FileResource();
+		resource.setFile(directory);
+		resource.setExtensions(new String[] { "java" });
+		resource.setManifest(manifest);
+		List<File> result = new LinkedList<File>();
+		for (File file : resource) {
+			result.add(file.getCanonicalFile());
+		}
+		manifest.save(pending);
+		return result;
+	}
+
+	@Test
+	public void testUnchangedFilesAreSkipped() throws Exception {
+		Assert.assertEquals(2, execute("config", null).size());
+		Assert.assertTrue(execute("config", null).isEmpty());
+	}
+
+	@Test
+	public void testChangedFilesAreProcessedAgain() throws Exception {
+		execute("config", null);
+		// same size, so the content hash decides
+		write(second, "class Secnod {}");
+		second.setLastModified(second.lastModified() + 10000);
+		Assert.assertEquals(Arrays.asList(second), execute("config", null));
+		write(first, "class First { }");
+		Assert.assertEquals(Arrays.asList(first), execute("config", null));
+	}
+
+	@Test
+	public void testTouchedFilesWithTheSameContentAreSkipped() throws Exception {
+		execute("config", null);
+		first.setLastModified(first.lastModified() + 10000);
+		Assert.assertTrue(execute("config", null).isEmpty());
+	}
+
+	@Test
+	public void testFailedFilesAreProcessedAgain() throws Exception {
+		execute("config", Arrays.asList(first));
+		Assert.assertEquals(Arrays.asList(first), execute("config", null));
+		Assert.assertTrue(execute("config", null).isEmpty());
+	}
+
+	@Test
+	public void testConfigurationChangesDiscardTheManifest() throws Exception {
+		execute("config", null);
+		Assert.assertEquals(2, execute("other config", null).size());
+		Assert.assertTrue(execute("other config", null).isEmpty());
+	}
+}
@@ -5,7 +5,10 @@ import org.junit.Test;
 import org.walkmod.utils.TestUtils;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
@@ -27,6 +30,41 @@ public class FileResourceTest {
 		assertThat(it.hasNext(), is(false));
 	}
 
+	@Test
+	public void testIncludesAreNotModified() throws Exception {
+		FileResource fr = new FileResource();
+		fr.setPath(SOURCES_PATH);
+		String[] includes = new String[] { "org/walkmod/**" };
+		String[] excludes = new String[] { "org/walkmod/util" };
+		fr.setIncludes(includes);
+		fr.setExcludes(excludes);
+		Iterator<File> it = fr.iterator();
+		Assert.assertTrue(it.hasNext());
+		assertThat(includes[0], equalTo("org/walkmod/**"));
+		assertThat(excludes[0], equalTo("org/walkmod/util"));
+	}
+
+	@Test
+	public void testShardsSplitTheFiles() throws Exception {
+		FileResource fr = new FileResource();
+		fr.setPath(SOURCES_PATH);
+		Set<File> all = new HashSet<File>();
+		for (File f : fr) {
+			all.add(f);
+		}
+		Set<File> sharded = new HashSet<File>();
+		int total = 0;
+		for (int i = 1; i <= 3; i++) {
+			fr.setShard(i, 3);
+			for (File f : fr) {
+				sharded.add(f);
+				total++;
+			}
+		}
+		assertThat(total, is(all.size()));
+		assertThat(sharded, equalTo(all));
+	}
+
 	@Test
 	public void testIncludes2() throws Exception {
 		FileResource fr = new FileResource();
@@ -135,4 +173,58 @@ public class FileResourceTest {
 		assertThat(it.hasNext(), is(false));
 	}
 
+	@Test
+	public void testWildcardIncludesDoNotTraverseSubdirectories() throws Exception {
+		FileResource fr = new FileResource();
+		fr.setPath(SOURCES_PATH);
+		fr.setIncludes(new String[] { "org/walkmod/*.java" });
+		File parent = new File(SOURCES_PATH, "org/walkmod").getCanonicalFile();
+		int count = 0;
+		for (File f : fr) {
+			assertThat(f.getParentFile(), equalTo(parent));
+			count++;
+		}
+		assertThat(count, greaterThan(0));
+	}
+
+	@Test
+	public void testIncludesArePrefixesOfTheFileNames() throws Exception {
+		FileResource fr = new FileResource();
+		fr.setPath(SOURCES_PATH);
+		fr.setIncludes(new String[] { "org/walkmod/util/File" });
+		Set<String> names = new HashSet<String>();
+		for (File f : fr) {
+			assertThat(f.getName(), startsWith("File"));
+			names.add(f.getName());
+		}
+		assertThat(names, hasItem("FileResource.java"));
+	}
+
+	@Test
+	public void testExcludesOnlyPruneDirectoriesWithExtensions() throws Exception {
+		FileResource fr = new FileResource();
+		fr.setPath(SOURCES_PATH);
+		fr.setExtensions(new String[] { "java" });
+		fr.setExcludes(new String[] { "**/*Command.java", "org/walkmod/util" });
+		Set<String> names = new HashSet<String>();
+		for (File f : fr) {
+			assertThat(f.getParentFile().getName(), not(equalTo("util")));
+			names.add(f.getName());
+		}
+		assertThat(names, hasItem("ApplyCommand.java"));
+	}
+
+	@Test
+	public void testSelectedFilesFollowTheDirectoryRules() throws Exception {
+		FileResource fr = new FileResource();
+		fr.setPath(SOURCES_PATH);
+		fr.setIncludes(new String[] { "org/walkmod/*.java" });
+		File facade = new File(SOURCES_PATH, "org/walkmod/WalkModFacade.java").getCanonicalFile();
+		File resource = new File(SOURCES_PATH, "org/walkmod/util/FileResource.java").getCanonicalFile();
+		fr.setSelectedFiles(Arrays.asList(facade, resource));
+		Iterator<File> it = fr.iterator();
+		assertThat(it.next(), equalTo(facade));
+		assertThat(it.hasNext(), is(false));
+	}
+
 }
@@ -0,0 +1,106 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileWatcherTest {
+
+	private File directory;
+
+	private File existing;
+
+	private FileWatcher watcher;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("walkmod", "watch");
+		directory.delete();
+		directory.mkdirs();
+		existing = write(new File(directory, "Existing.java"), "class Existing {}");
+		watcher = new FileWatcher(Arrays.asList(directory));
+		Assert.assertTrue(watcher.scan().isEmpty());
+	}
+
+	@After
+	public void tearDown() {
+		delete(directory);
+	}
+
+	private static File write(File file, String content) throws IOException {
+		file.getParentFile().mkdirs();
+		FileOutputStream os = new FileOutputStream(file);
+		try {
+			os.write(content.getBytes("UTF-8"));
+		} finally {
+			os.close();
+		}
+		return file.getAbsoluteFile();
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	@Test
+	public void testCreatedFiles() throws Exception {
+		File created = write(new File(directory, "org/walkmod/Created.java"), "class Created {}");
+		Assert.assertEquals(Collections.singleton(created), watcher.scan());
+		Assert.assertTrue(watcher.scan().isEmpty());
+	}
+
+	@Test
+	public void testModifiedFiles() throws Exception {
+		write(existing, "class Existing { int i; }");
+		Assert.assertEquals(Collections.singleton(existing), watcher.scan());
+
+		// same size, only the modification time changes
+		write(existing, "class Existing { int j; }");
+		existing.setLastModified(existing.lastModified() + 2000);
+		Assert.assertEquals(Collections.singleton(existing), watcher.scan());
+		Assert.assertTrue(watcher.scan().isEmpty());
+	}
+
+	@Test
+	public void testDeletedFiles() throws Exception {
+		Assert.assertTrue(existing.delete());
+		Assert.assertEquals(Collections.singleton(existing), watcher.scan());
+		Assert.assertTrue(watcher.scan().isEmpty());
+	}
+
+	@Test
+	public void testHiddenDirectoriesAreNotScanned() throws Exception {
+		write(new File(directory, ".walkmod/manifests/default.manifest"), "#walkmod-manifest");
+		Set<File> changes = watcher.scan();
+		Assert.assertTrue(changes.isEmpty());
+	}
+}
@@ -0,0 +1,61 @@
+package org.walkmod.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PathFilterTest {
+
+	private static final String ROOT = "/project/src";
+
+	@Test
+	public void testWritersIncludeTheContainedFiles() {
+		PathFilter filter = PathFilter.compile(ROOT, new String[] { "org/walkmod/**" },
+				new String[] { "org/walkmod/util", "**/*Test.java" });
+		Assert.assertTrue(filter.accept(ROOT + "/org/walkmod/Options.java"));
+		Assert.assertFalse(filter.accept(ROOT + "/org/walkmod/util/FileResource.java"));
+		Assert.assertFalse(filter.accept(ROOT + "/org/walkmod/OptionsTest.java"));
+		Assert.assertFalse(filter.accept(ROOT + "/org/walkmodule/Options.java"));
+	}
+
+	@Test
+	public void testReadersMatchPrefixes() {
+		PathFilter filter = PathFilter.compile(ROOT, new String[] { "org/walkmod/util/File" }, null);
+		Assert.assertTrue(filter.acceptDirectory(ROOT + "/org"));
+		Assert.assertTrue(filter.acceptDirectory(ROOT + "/org/walkmod/util"));
+		Assert.assertTrue(filter.acceptDirectory(ROOT + "/org/walkmod/util/FileResource.java"));
+		Assert.assertFalse(filter.acceptDirectory(ROOT + "/org/walkmod/util/PathFilter.java"));
+	}
+
+	@Test
+	public void testReadersDoNotTraverseWildcardSubdirectories() {
+		PathFilter filter = PathFilter.compile(ROOT, new String[] { "org/walkmod/*.java" }, null);
+		Assert.assertTrue(filter.acceptDirectory(ROOT + "/org/walkmod"));
+		Assert.assertTrue(filter.acceptDirectory(ROOT + "/org/walkmod/Options.java"));
+		Assert.assertFalse(filter.acceptDirectory(ROOT + "/org/walkmod/util"));
+	}
+
+	@Test
+	public void testReadersExcludeTheChildrenOfExcludedDirectories() {
+		PathFilter filter = PathFilter.compile(ROOT, null, new String[] { "org/walkmod/util/**", "**/*Command.java" });
+		Assert.assertTrue(filter.acceptDirectory(ROOT + "/org/walkmod"));
+		Assert.assertFalse(filter.acceptDirectory(ROOT + "/org/walkmod/util"));
+		Assert.assertFalse(filter.acceptDirectory(ROOT + "/org/walkmod/util/location"));
+		Assert.assertFalse(filter.acceptDirectory(ROOT + "/org/walkmod/commands/ApplyCommand.java"));
+		Assert.assertTrue(filter.acceptDirectory(ROOT + "/org/walkmod/commands"));
+	}
+
+	@Test
+	public void testWildcardFiltersUseThePatternsAsTheyAre() {
+		PathFilter filter = PathFilter.compileWildcards(new String[] { "src/**" }, new String[] { "src/util" });
+		Assert.assertTrue(filter.accept("src/Options.java"));
+		Assert.assertTrue(filter.accept("src/util/FileResource.java"));
+		Assert.assertFalse(filter.accept("src/util"));
+		Assert.assertFalse(filter.accept("test/Options.java"));
+	}
+
+	@Test
+	public void testNoPatternsAcceptAll() {
+		Assert.assertTrue(PathFilter.compile(ROOT, null, null).isAcceptAll());
+		Assert.assertTrue(PathFilter.compileWildcards(null, null).isAcceptAll());
+	}
+}
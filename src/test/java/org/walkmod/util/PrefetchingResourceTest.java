@@ -0,0 +1,151 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PrefetchingResourceTest {
+
+	private File directory;
+
+	private FileResource files;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("walkmod", "prefetch");
+		directory.delete();
+		directory.mkdirs();
+		for (int i = 0; i < 8; i++) {
+			write(new File(directory, "File" + i + ".java"), "class File" + i + " {}");
+		}
+		files = new FileResource();
+		files.setFile(directory);
+	}
+
+	@After
+	public void tearDown() {
+		File[] children = directory.listFiles();
+		for (File child : children) {
+			child.delete();
+		}
+		directory.delete();
+	}
+
+	private static void write(File file, String content) throws IOException {
+		FileOutputStream os = new FileOutputStream(file);
+		try {
+			os.write(content.getBytes("UTF-8"));
+		} finally {
+			os.close();
+		}
+	}
+
+	private static List<File> list(Iterable<File> resource) {
+		List<File> result = new LinkedList<File>();
+		for (File file : resource) {
+			result.add(file);
+		}
+		return result;
+	}
+
+	private static int countPrefetchThreads() {
+		int result = 0;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.isAlive() && "walkmod-prefetch".equals(thread.getName())) {
+				result++;
+			}
+		}
+		return result;
+	}
+
+	@Test
+	public void testTheFilesAndTheirOrderAreTheSame() throws Exception {
+		PrefetchingResource<File> resource = new PrefetchingResource<File>(files, 3,
+				PrefetchingResource.DEFAULT_MAX_SIZE);
+		Assert.assertEquals(list(files), list(resource));
+	}
+
+	@Test
+	public void testTheContentsAreTakenOnce() throws Exception {
+		PrefetchingResource<File> resource = new PrefetchingResource<File>(files, 3,
+				PrefetchingResource.DEFAULT_MAX_SIZE);
+		int count = 0;
+		for (File file : resource) {
+			byte[] content = resource.takeContent(file);
+			Assert.assertNotNull(content);
+			Assert.assertEquals(file.getName().replace(".java", ""), new String(content, "UTF-8").substring(6, 11));
+			Assert.assertNull(resource.takeContent(file));
+			count++;
+		}
+		Assert.assertEquals(8, count);
+	}
+
+	@Test
+	public void testTheContentsOverTheMaximumSizeAreNotPrefetched() throws Exception {
+		PrefetchingResource<File> resource = new PrefetchingResource<File>(files, 3, 4);
+		for (File file : resource) {
+			Assert.assertNull(resource.takeContent(file));
+		}
+	}
+
+	@Test
+	public void testTheFilesThatChangeTheirLengthAreNotPrefetched() throws Exception {
+		File file = new File(directory, "File0.java");
+		int length = (int) file.length();
+		Assert.assertEquals("class File0 {}", new String(PrefetchingResource.read(file, length), "UTF-8"));
+		try {
+			// the file has grown since its length was read
+			PrefetchingResource.read(file, length - 1);
+			Assert.fail("the contents must not be truncated");
+		} catch (IOException e) {
+			Assert.assertTrue(e.getMessage().contains("has grown"));
+		}
+		try {
+			PrefetchingResource.read(file, length + 1);
+			Assert.fail("the contents must not be padded");
+		} catch (IOException e) {
+			Assert.assertTrue(e.getMessage().contains("has been truncated"));
+		}
+	}
+
+	@Test
+	public void testCloseStopsAnUnfinishedIteration() throws Exception {
+		PrefetchingResource<File> resource = new PrefetchingResource<File>(files, 3,
+				PrefetchingResource.DEFAULT_MAX_SIZE);
+		int before = countPrefetchThreads();
+		Iterator<File> it = resource.iterator();
+		File first = it.next();
+		Assert.assertNotNull(resource.takeContent(first));
+		Assert.assertTrue(countPrefetchThreads() > before);
+		resource.close();
+		for (int i = 0; i < 100 && countPrefetchThreads() > before; i++) {
+			Thread.sleep(50);
+		}
+		Assert.assertEquals(before, countPrefetchThreads());
+		// the contents read in advance are released
+		Assert.assertNull(resource.takeContent(list(files).get(1)));
+	}
+}
@@ -0,0 +1,287 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.walkers;
+
+import java.io.File;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.walkmod.exceptions.WalkModException;
+import org.walkmod.merger.IdentificableNode;
+import org.walkmod.writers.Summary;
+
+public class AbstractWalkerTest {
+
+	public interface Named {
+	}
+
+	public static class Node implements Named {
+	}
+
+	/**
+	 * Node that is equal to any other value node with the same value, of any
+	 * class.
+	 */
+	public static class Value {
+
+		private final String value;
+
+		public Value(String value) {
+			this.value = value;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Value && ((Value) o).value.equals(value);
+		}
+
+		@Override
+		public int hashCode() {
+			return value.hashCode();
+		}
+	}
+
+	public static class OtherValue extends Value {
+
+		public OtherValue(String value) {
+			super(value);
+		}
+	}
+
+	public static class IdentifiedNode implements IdentificableNode {
+
+		private final String id;
+
+		public IdentifiedNode(String id) {
+			this.id = id;
+		}
+
+		@Override
+		public Comparator<?> getIdentityComparator() {
+			return new Comparator<IdentifiedNode>() {
+
+				@Override
+				public int compare(IdentifiedNode o1, IdentifiedNode o2) {
+					return o1.id.compareTo(o2.id);
+				}
+			};
+		}
+	}
+
+	public static class TestWalker extends AbstractWalker {
+
+		private List<String> calls = new LinkedList<String>();
+
+		public void accept(Node node) {
+			calls.add("node");
+		}
+
+		public void accept(Named named) {
+			calls.add("named");
+		}
+
+		public void accept(File file) throws WalkModException {
+			throw new WalkModException("Invalid file " + file.getName());
+		}
+
+		public List<String> getCalls() {
+			return calls;
+		}
+
+		@Override
+		protected Object getSourceNode(Object targetNode) {
+			calls.add("source");
+			return null;
+		}
+
+		@Override
+		protected String getLocation(VisitorContext ctx) {
+			return null;
+		}
+
+		@Override
+		public void setParser(Parser<?> parser) {
+		}
+
+		@Override
+		public Parser<?> getParser() {
+			return null;
+		}
+
+		@Override
+		public int getNumModifications() {
+			return 0;
+		}
+
+		@Override
+		public int getNumAdditions() {
+			return 0;
+		}
+
+		@Override
+		public int getNumDeletions() {
+			return 0;
+		}
+
+		@Override
+		public boolean reportChanges() {
+			return false;
+		}
+
+		@Override
+		public void setReportChanges(boolean reportChanges) {
+		}
+	}
+
+	@Test
+	public void testAcceptChainFollowsTheInterfaces() throws Exception {
+		TestWalker walker = new TestWalker();
+		walker.walk(new Node());
+		walker.walk(new Node());
+		Assert.assertEquals("[node, named, node, named]", walker.getCalls().toString());
+	}
+
+	@Test
+	public void testNegativeAcceptChainsAreCached() throws Exception {
+		TestWalker walker = new TestWalker();
+		walker.walk("text");
+		Assert.assertTrue(walker.getCalls().isEmpty());
+		Assert.assertEquals(0, walker.getAcceptChain(String.class).length);
+		Assert.assertSame(walker.getAcceptChain(String.class), walker.getAcceptChain(String.class));
+	}
+
+	@Test
+	public void testMergeReplacesAnEqualResultNode() throws Exception {
+		TestWalker walker = new TestWalker();
+		VisitorContext vc = new VisitorContext();
+		Value previous = new Value("a");
+		vc.addResultNode(previous);
+		Value current = new Value("a");
+		Assert.assertSame(current, walker.merge(current, null, vc));
+		Assert.assertFalse(vc.getResultNodes().contains(previous));
+		Assert.assertTrue(walker.getCalls().isEmpty());
+	}
+
+	@Test
+	public void testMergeRemovesTheSameResultNode() throws Exception {
+		// the result nodes are an unmodifiable copy, which used to be modified
+		TestWalker walker = new TestWalker();
+		VisitorContext vc = new VisitorContext();
+		Value node = new Value("a");
+		vc.addResultNode(node);
+		Assert.assertNull(walker.merge(node, null, vc));
+		Assert.assertFalse(vc.hasResultNodes());
+		Assert.assertEquals("[source]", walker.getCalls().toString());
+	}
+
+	@Test
+	public void testMergeOnlyMatchesResultNodesOfTheSameClass() throws Exception {
+		TestWalker walker = new TestWalker();
+		VisitorContext vc = new VisitorContext();
+		Value other = new OtherValue("a");
+		vc.addResultNode(other);
+		Assert.assertNull(walker.merge(new Value("a"), null, vc));
+		Assert.assertTrue(vc.getResultNodes().contains(other));
+		Assert.assertEquals("[source]", walker.getCalls().toString());
+	}
+
+	@Test
+	public void testMergeMatchesIdentificableNodesByTheirComparator() throws Exception {
+		TestWalker walker = new TestWalker();
+		VisitorContext vc = new VisitorContext();
+		IdentifiedNode previous = new IdentifiedNode("a");
+		IdentifiedNode unrelated = new IdentifiedNode("b");
+		vc.addResultNode(previous);
+		vc.addResultNode(unrelated);
+		IdentifiedNode current = new IdentifiedNode("a");
+		Assert.assertSame(current, walker.merge(current, null, vc));
+		Assert.assertFalse(vc.getResultNodes().contains(previous));
+		Assert.assertTrue(vc.getResultNodes().contains(unrelated));
+	}
+
+	@Test
+	public void testChainScopeRemembersTheElementsOfAllTheResources() throws Exception {
+		TestWalker walker = new TestWalker();
+		walker.setVisitedElementsScope("chain");
+		Node node = new Node();
+		Assert.assertTrue(walker.isVisitable(node));
+		Assert.assertFalse(walker.isVisitable(node));
+		walker.walkResourceElement("resource");
+		Assert.assertFalse(walker.isVisitable(node));
+	}
+
+	@Test
+	public void testResourceScopeForgetsTheElementsAfterEachResource() throws Exception {
+		TestWalker walker = new TestWalker();
+		walker.setVisitedElementsScope("resource");
+		Node node = new Node();
+		Assert.assertTrue(walker.isVisitable(node));
+		Assert.assertFalse(walker.isVisitable(node));
+		walker.walkResourceElement("resource");
+		Assert.assertTrue(walker.isVisitable(node));
+		Assert.assertFalse(walker.isVisitable(node));
+	}
+
+	@Test
+	public void testWeakScopeRemembersTheReachableElements() throws Exception {
+		TestWalker walker = new TestWalker();
+		walker.setVisitedElementsScope("WEAK");
+		Node node = new Node();
+		Assert.assertTrue(walker.isVisitable(node));
+		Assert.assertFalse(walker.isVisitable(node));
+		walker.walkResourceElement("resource");
+		Assert.assertFalse(walker.isVisitable(node));
+		Assert.assertEquals(VisitedElementsScope.WEAK, walker.getVisitedElementsScope());
+	}
+
+	@Test
+	public void testScopeNamesDoNotDependOnTheLocale() {
+		Locale locale = Locale.getDefault();
+		Locale.setDefault(new Locale("tr", "TR"));
+		try {
+			Assert.assertEquals(VisitedElementsScope.CHAIN, VisitedElementsScope.fromString(" chain "));
+			Assert.assertEquals(VisitedElementsScope.WEAK, VisitedElementsScope.fromString("weak"));
+		} finally {
+			Locale.setDefault(locale);
+		}
+		try {
+			VisitedElementsScope.fromString("file");
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			Assert.assertEquals("Invalid visited elements scope: file. The valid scopes are chain, resource, weak",
+					e.getMessage());
+		}
+	}
+
+	@Test
+	public void testFailedFilesAreRegistered() throws Exception {
+		TestWalker walker = new TestWalker();
+		File file = new File("Invalid.java");
+		Summary.getInstance().clear();
+		try {
+			walker.walkResourceElement(file);
+			Assert.fail();
+		} catch (Exception e) {
+			Assert.assertTrue(Summary.getInstance().getFailedFiles().contains(file));
+		} finally {
+			Summary.getInstance().clear();
+		}
+	}
+}
@@ -0,0 +1,240 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.walkers;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CachingParserTest {
+
+	public static class Lines {
+
+		private final List<String> lines;
+
+		public Lines(List<String> lines) {
+			this.lines = lines;
+		}
+
+		public List<String> getLines() {
+			return lines;
+		}
+	}
+
+	/**
+	 * Parser of the lines of a file, which counts the parsed files.
+	 */
+	public static class LinesParser implements Parser<Object> {
+
+		private int parsedFiles = 0;
+
+		private int parsedReaders = 0;
+
+		private boolean serializable = true;
+
+		public int getParsedFiles() {
+			return parsedFiles;
+		}
+
+		public int getParsedReaders() {
+			return parsedReaders;
+		}
+
+		public void setSerializable(boolean serializable) {
+			this.serializable = serializable;
+		}
+
+		@Override
+		public Object parse(String text) throws ParseException {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Object parse(String text, boolean withoutLocation) throws ParseException {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Object parse(File file) throws ParseException {
+			return parse(file, "UTF-8");
+		}
+
+		@Override
+		public Object parse(File file, String encoding) throws ParseException {
+			parsedFiles++;
+			try {
+				return read(new InputStreamReader(new FileInputStream(file), encoding));
+			} catch (IOException e) {
+				throw new ParseException(e);
+			}
+		}
+
+		@Override
+		public Object parse(Reader reader) throws ParseException {
+			parsedReaders++;
+			return read(reader);
+		}
+
+		protected Object read(Reader reader) throws ParseException {
+			ArrayList<String> lines = new ArrayList<String>();
+			try {
+				BufferedReader br = new BufferedReader(reader);
+				try {
+					String line = br.readLine();
+					while (line != null) {
+						lines.add(line);
+						line = br.readLine();
+					}
+				} finally {
+					br.close();
+				}
+			} catch (IOException e) {
+				throw new ParseException(e);
+			}
+			if (!serializable) {
+				return new Lines(lines);
+			}
+			return lines;
+		}
+	}
+
+	private File file;
+
+	private LinesParser lines;
+
+	private ParseCache cache;
+
+	private CachingParser<Object> parser;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("walkmod", ".java");
+		write(file, "class A {}");
+		lines = new LinesParser();
+		cache = new ParseCache();
+		parser = new CachingParser<Object>(lines, cache);
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	static void write(File file, String content) throws IOException {
+		FileOutputStream os = new FileOutputStream(file);
+		try {
+			os.write(content.getBytes("UTF-8"));
+		} finally {
+			os.close();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testEachReaderReceivesACopy() throws Exception {
+		List<String> first = (List<String>) parser.parse(file);
+		first.add("class B {}");
+		List<String> second = (List<String>) parser.parse(file);
+		List<String> third = (List<String>) parser.parse(file);
+		Assert.assertEquals(1, lines.getParsedFiles());
+		Assert.assertEquals(1, second.size());
+		Assert.assertEquals("class A {}", second.get(0));
+		Assert.assertEquals(second, third);
+		Assert.assertNotSame(second, third);
+	}
+
+	@Test
+	public void testChangedFilesAreParsedAgain() throws Exception {
+		parser.parse(file);
+		write(file, "class A { }");
+		Assert.assertEquals("class A { }", ((List<?>) parser.parse(file)).get(0));
+		Assert.assertEquals(2, lines.getParsedFiles());
+	}
+
+	@Test
+	public void testContentsAreComparedWhenOnlyTheModificationTimeChanges() throws Exception {
+		parser.parse(file);
+		file.setLastModified(file.lastModified() + 10000);
+		parser.parse(file);
+		Assert.assertEquals(1, lines.getParsedFiles());
+
+		write(file, "class B {}");
+		file.setLastModified(file.lastModified() + 20000);
+		Assert.assertEquals("class B {}", ((List<?>) parser.parse(file)).get(0));
+		Assert.assertEquals(2, lines.getParsedFiles());
+	}
+
+	@Test
+	public void testWrittenFilesAreInvalidated() throws Exception {
+		parser.parse(file);
+		cache.invalidate(file);
+		Assert.assertEquals(0, cache.getNumEntries());
+		parser.parse(file);
+		Assert.assertEquals(2, lines.getParsedFiles());
+	}
+
+	@Test
+	public void testEncodingsAreCachedSeparately() throws Exception {
+		parser.parse(file, "UTF-8");
+		parser.parse(file, "ISO-8859-1");
+		Assert.assertEquals(2, lines.getParsedFiles());
+	}
+
+	@Test
+	public void testNotSerializableAstsAreNotCached() throws Exception {
+		lines.setSerializable(false);
+		Object first = parser.parse(file);
+		Object second = parser.parse(file);
+		Assert.assertEquals(2, lines.getParsedFiles());
+		Assert.assertNotSame(first, second);
+		Assert.assertEquals(0, cache.getNumEntries());
+	}
+
+	@Test
+	public void testTheCacheIsBoundedBySize() throws Exception {
+		File other = File.createTempFile("walkmod", ".java");
+		try {
+			write(other, "class B {}");
+			parser.parse(file);
+			parser.parse(other);
+			Assert.assertEquals(2, cache.getNumEntries());
+			cache.setMaxSize(cache.getMaxSize() / 1024 / 1024);
+			Assert.assertEquals(0, cache.getNumEntries());
+			// the least recently used entry is evicted first
+			cache.setMaxSize(ParseCache.DEFAULT_MAX_SIZE);
+			parser.parse(file);
+			parser.parse(other);
+			parser.parse(file);
+			byte[] snapshot = cache.get(file.getCanonicalPath(), LinesParser.class.getName() + ":null", file);
+			cache.setMaxSize(snapshot.length);
+			Assert.assertEquals(1, cache.getNumEntries());
+			Assert.assertNotNull(cache.get(file.getCanonicalPath(), LinesParser.class.getName() + ":null", file));
+		} finally {
+			other.delete();
+		}
+	}
+}
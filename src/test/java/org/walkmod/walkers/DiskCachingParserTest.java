@@ -0,0 +1,185 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.walkers;
+
+import java.io.File;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.walkmod.walkers.CachingParserTest.LinesParser;
+
+public class DiskCachingParserTest {
+
+	/**
+	 * Parser whose ASTs contain a class that cannot be read from the cache.
+	 */
+	public static class FilesParser extends LinesParser {
+
+		@SuppressWarnings("unchecked")
+		@Override
+		protected Object read(Reader reader) throws ParseException {
+			List<Object> result = new ArrayList<Object>((Collection<Object>) super.read(reader));
+			result.add(new File("A.java"));
+			return result;
+		}
+	}
+
+	private File directory;
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("walkmod", "cache");
+		directory.delete();
+		directory.mkdirs();
+		file = new File(directory, "A.java");
+		CachingParserTest.write(file, "class A {}");
+	}
+
+	@After
+	public void tearDown() {
+		delete(directory);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private File getCacheDirectory() {
+		return new File(directory, "cache");
+	}
+
+	private List<File> getEntries() {
+		List<File> result = new ArrayList<File>();
+		File[] dirs = getCacheDirectory().listFiles();
+		if (dirs != null) {
+			for (File dir : dirs) {
+				File[] files = dir.listFiles();
+				if (files != null) {
+					for (File entry : files) {
+						result.add(entry);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	private Object parse(LinesParser lines, File file, String parserId, long maxSize) throws Exception {
+		return new DiskCachingParser<Object>(lines, getCacheDirectory(), maxSize, parserId).parse(file, "UTF-8");
+	}
+
+	@Test
+	public void testUnchangedFilesAreReadFromTheCache() throws Exception {
+		LinesParser first = new LinesParser();
+		Object parsed = parse(first, file, "v1", DiskCachingParser.DEFAULT_MAX_SIZE);
+		LinesParser second = new LinesParser();
+		Object cached = parse(second, file, "v1", DiskCachingParser.DEFAULT_MAX_SIZE);
+		Assert.assertEquals(1, first.getParsedFiles());
+		Assert.assertEquals(0, second.getParsedFiles());
+		Assert.assertEquals(parsed, cached);
+		Assert.assertEquals(1, getEntries().size());
+	}
+
+	@Test
+	public void testChangedFilesAreParsedAgain() throws Exception {
+		LinesParser lines = new LinesParser();
+		parse(lines, file, "v1", DiskCachingParser.DEFAULT_MAX_SIZE);
+		CachingParserTest.write(file, "class A { }");
+		Object result = parse(lines, file, "v1", DiskCachingParser.DEFAULT_MAX_SIZE);
+		Assert.assertEquals(2, lines.getParsedFiles());
+		Assert.assertEquals("class A { }", ((List<?>) result).get(0));
+	}
+
+	@Test
+	public void testOtherParserVersionsParseAgain() throws Exception {
+		LinesParser lines = new LinesParser();
+		parse(lines, file, "v1", DiskCachingParser.DEFAULT_MAX_SIZE);
+		parse(lines, file, "v2", DiskCachingParser.DEFAULT_MAX_SIZE);
+		Assert.assertEquals(2, lines.getParsedFiles());
+		parse(lines, file, "v1", DiskCachingParser.DEFAULT_MAX_SIZE);
+		Assert.assertEquals(2, lines.getParsedFiles());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEntriesAreRemoved() throws Exception {
+		File second = new File(directory, "B.java");
+		CachingParserTest.write(second, "class B {}");
+		File third = new File(directory, "C.java");
+		CachingParserTest.write(third, "class C {}");
+		LinesParser lines = new LinesParser();
+		parse(lines, file, "v1", DiskCachingParser.DEFAULT_MAX_SIZE);
+		File firstEntry = getEntries().get(0);
+		parse(lines, second, "v1", DiskCachingParser.DEFAULT_MAX_SIZE);
+		List<File> entries = getEntries();
+		entries.remove(firstEntry);
+		File secondEntry = entries.get(0);
+		long now = System.currentTimeMillis();
+		firstEntry.setLastModified(now - 20000);
+		secondEntry.setLastModified(now - 10000);
+		long entrySize = firstEntry.length();
+
+		// the first file is used again, so the second one is the oldest
+		long maxSize = entrySize * 3 - 1;
+		parse(lines, file, "v1", maxSize);
+		Assert.assertEquals(2, lines.getParsedFiles());
+		parse(lines, third, "v1", maxSize);
+		Assert.assertEquals(3, lines.getParsedFiles());
+		Assert.assertTrue(firstEntry.exists());
+		Assert.assertFalse(secondEntry.exists());
+		Assert.assertEquals(2, getEntries().size());
+	}
+
+	@Test
+	public void testNotAllowedClassesAreCacheMisses() throws Exception {
+		LinesParser lines = new FilesParser();
+		parse(lines, file, "v1", DiskCachingParser.DEFAULT_MAX_SIZE);
+		Assert.assertEquals(1, getEntries().size());
+		Object result = parse(lines, file, "v1", DiskCachingParser.DEFAULT_MAX_SIZE);
+		Assert.assertEquals(2, lines.getParsedFiles());
+		Assert.assertEquals(new File("A.java"), ((List<?>) result).get(1));
+	}
+
+	@Test
+	public void testAllowedClasses() {
+		Class<?> parserType = LinesParser.class;
+		Assert.assertTrue(AstSerialization.isAllowed("java.lang.String", parserType));
+		Assert.assertTrue(AstSerialization.isAllowed("[Ljava.lang.Integer;", parserType));
+		Assert.assertTrue(AstSerialization.isAllowed("[[I", parserType));
+		Assert.assertTrue(AstSerialization.isAllowed("java.util.ArrayList", parserType));
+		Assert.assertTrue(AstSerialization.isAllowed("java.util.Collections$UnmodifiableRandomAccessList", parserType));
+		Assert.assertTrue(AstSerialization.isAllowed("org.walkmod.walkers.ast.Node", parserType));
+		Assert.assertFalse(AstSerialization.isAllowed("java.lang.reflect.Proxy", parserType));
+		Assert.assertFalse(AstSerialization.isAllowed("java.util.concurrent.ConcurrentHashMap", parserType));
+		Assert.assertFalse(AstSerialization.isAllowed("java.io.File", parserType));
+		Assert.assertFalse(AstSerialization.isAllowed("org.walkmod.walkersx.Node", parserType));
+		Assert.assertFalse(AstSerialization.isAllowed(
+				"org.apache.commons.collections.functors.InvokerTransformer", parserType));
+	}
+}
@@ -0,0 +1,73 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.walkers;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DispatchTableTest {
+
+	public static class Visitor {
+
+		public void visit(Object o) {
+		}
+
+		public void visit(String s, VisitorContext vc) {
+		}
+
+		public void visit(CharSequence s) {
+		}
+
+		public void other(String s) {
+		}
+	}
+
+	@Test
+	public void testExactMatchBeatsSupertypes() throws Exception {
+		DispatchTable table = new DispatchTable("visit");
+		DispatchTable.Invoker[] invokers = table.resolve(new Visitor(), "text");
+		boolean exact = false;
+		for (DispatchTable.Invoker invoker : invokers) {
+			Assert.assertFalse("no candidate follows the exact match", exact);
+			exact = invoker.getElementType().equals(String.class);
+		}
+		Assert.assertTrue(exact);
+		Assert.assertTrue(invokers[invokers.length - 1].requiresContext());
+	}
+
+	@Test
+	public void testAllApplicableMethodsWithoutExactMatchWins() throws Exception {
+		DispatchTable table = new DispatchTable("visit", false);
+		Assert.assertEquals(3, table.resolve(new Visitor(), "text").length);
+		Assert.assertEquals(1, table.resolve(new Visitor(), Integer.valueOf(1)).length);
+	}
+
+	@Test
+	public void testNegativeResultsAreCached() throws Exception {
+		DispatchTable table = new DispatchTable("other");
+		DispatchTable.Invoker[] first = table.resolve(Visitor.class, Integer.class);
+		Assert.assertEquals(0, first.length);
+		Assert.assertSame(first, table.resolve(Visitor.class, Integer.class));
+		Assert.assertEquals(0, table.resolve(new Visitor(), null).length);
+	}
+
+	@Test
+	public void testResolvedMethodsAreCached() throws Exception {
+		DispatchTable table = new DispatchTable("visit");
+		table.register(Visitor.class);
+		Assert.assertSame(table.resolve(Visitor.class, String.class), table.resolve(Visitor.class, String.class));
+	}
+}
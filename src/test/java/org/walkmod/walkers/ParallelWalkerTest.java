@@ -0,0 +1,198 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.walkers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.walkmod.Resource;
+
+public class ParallelWalkerTest {
+
+	public static class ListResource implements Resource<Integer> {
+
+		private final List<Integer> elements;
+
+		public ListResource(List<Integer> elements) {
+			this.elements = elements;
+		}
+
+		@Override
+		public Iterator<Integer> iterator() {
+			return elements.iterator();
+		}
+
+		@Override
+		public String getNearestNamespace(Object element, String regexSeparator) {
+			return null;
+		}
+
+		@Override
+		public String getOwnerNamespace(Object element, String regexSeparator) {
+			return null;
+		}
+	}
+
+	public static class ListWriter {
+
+		private final List<Object> written = Collections.synchronizedList(new LinkedList<Object>());
+
+		public void write(Object element, VisitorContext vc) {
+			written.add(element);
+		}
+
+		public List<Object> getWritten() {
+			return written;
+		}
+	}
+
+	/**
+	 * Writes the square of each element and two results for the even ones,
+	 * after a delay that makes the threads finish out of order.
+	 */
+	public static class SquareWalker extends AbstractWalkerTest.TestWalker {
+
+		private int modifications = 0;
+
+		public void accept(Integer element) throws Exception {
+			Thread.sleep((element * 7) % 5);
+			modifications++;
+			write(element * element, null);
+			if (element % 2 == 0) {
+				write(-element, null);
+			}
+		}
+
+		@Override
+		public int getNumModifications() {
+			return modifications;
+		}
+	}
+
+	private List<Integer> createElements(int size) {
+		List<Integer> elements = new ArrayList<Integer>();
+		for (int i = 0; i < size; i++) {
+			elements.add(i);
+		}
+		return elements;
+	}
+
+	private ListWriter run(AbstractWalker walker, List<Integer> elements) throws Exception {
+		ListWriter writer = new ListWriter();
+		walker.setResource(new ListResource(elements));
+		walker.setWriter(writer);
+		walker.execute();
+		return writer;
+	}
+
+	@Test
+	public void testParallelAndSequentialWritesAreTheSame() throws Exception {
+		List<Integer> elements = createElements(200);
+		ListWriter sequential = run(new SquareWalker(), elements);
+
+		List<AbstractWalker> workers = new LinkedList<AbstractWalker>();
+		for (int i = 0; i < 4; i++) {
+			workers.add(new SquareWalker());
+		}
+		ListWriter writer = new ListWriter();
+		ParallelWalker walker = new ParallelWalker(new SquareWalker(), workers);
+		walker.setResource(new ListResource(elements));
+		walker.setWriter(writer);
+		walker.execute();
+
+		Assert.assertEquals(300, sequential.getWritten().size());
+		Assert.assertEquals(sequential.getWritten(), writer.getWritten());
+		Assert.assertEquals(200, walker.getNumModifications());
+		Assert.assertTrue(walker.hasChanges());
+	}
+
+	@Test
+	public void testErrorsOfTheWorkersReachTheCaller() throws Exception {
+		List<AbstractWalker> workers = new LinkedList<AbstractWalker>();
+		for (int i = 0; i < 2; i++) {
+			workers.add(new SquareWalker() {
+
+				@Override
+				public void accept(Integer element) throws Exception {
+					if (element == 5) {
+						throw new IllegalStateException("element " + element);
+					}
+					super.accept(element);
+				}
+			});
+		}
+		ParallelWalker walker = new ParallelWalker(new SquareWalker(), workers);
+		walker.setResource(new ListResource(createElements(20)));
+		walker.setWriter(new ListWriter());
+		try {
+			walker.execute();
+			Assert.fail("the error of the worker must be thrown");
+		} catch (Exception e) {
+			Throwable cause = e;
+			while (cause.getCause() != null && !(cause instanceof IllegalStateException)) {
+				cause = cause.getCause();
+			}
+			Assert.assertEquals("element 5", cause.getMessage());
+		}
+	}
+
+	@Test
+	public void testTheWorkersHaveStoppedWhenTheErrorIsThrown() throws Exception {
+		final AtomicInteger running = new AtomicInteger();
+		List<AbstractWalker> workers = new LinkedList<AbstractWalker>();
+		for (int i = 0; i < 4; i++) {
+			workers.add(new SquareWalker() {
+
+				@Override
+				public void accept(Integer element) throws Exception {
+					if (element == 0) {
+						throw new IllegalStateException("element " + element);
+					}
+					running.incrementAndGet();
+					try {
+						long end = System.currentTimeMillis() + 100;
+						while (System.currentTimeMillis() < end) {
+							// ignores the interruptions, like a parser reading a file
+						}
+						super.accept(element);
+					} finally {
+						running.decrementAndGet();
+					}
+				}
+			});
+		}
+		ParallelWalker walker = new ParallelWalker(new SquareWalker(), workers);
+		walker.setResource(new ListResource(createElements(8)));
+		walker.setWriter(new ListWriter());
+		try {
+			walker.execute();
+			Assert.fail("the error of the worker must be thrown");
+		} catch (Exception e) {
+			Assert.assertEquals(0, running.get());
+		}
+	}
+
+	@Test
+	public void testThePendingWindowIsBoundedByTheParallelism() {
+		Assert.assertEquals(8, ParallelWalker.getPendingWindow(4));
+	}
+}
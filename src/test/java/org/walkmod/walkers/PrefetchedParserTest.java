@@ -0,0 +1,107 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.walkers;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.walkmod.util.FileResource;
+import org.walkmod.util.PrefetchingResource;
+import org.walkmod.walkers.CachingParserTest.LinesParser;
+
+public class PrefetchedParserTest {
+
+	private File directory;
+
+	private File file;
+
+	private PrefetchingResource<File> resource;
+
+	private LinesParser lines;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("walkmod", "prefetch");
+		directory.delete();
+		directory.mkdirs();
+		file = new File(directory, "A.java");
+		CachingParserTest.write(file, "class A {}");
+		FileResource files = new FileResource();
+		files.setFile(directory);
+		resource = new PrefetchingResource<File>(files, 2, PrefetchingResource.DEFAULT_MAX_SIZE);
+		lines = new LinesParser();
+	}
+
+	@After
+	public void tearDown() {
+		resource.close();
+		file.delete();
+		directory.delete();
+	}
+
+	@Test
+	public void testTheOtherParsersReadTheFiles() throws Exception {
+		Parser<Object> parser = new PrefetchedParser<Object>(lines, resource);
+		Iterator<File> it = resource.iterator();
+		File next = it.next();
+		List<?> result = (List<?>) parser.parse(next, "UTF-8");
+		Assert.assertEquals("class A {}", result.get(0));
+		Assert.assertEquals(1, lines.getParsedFiles());
+		Assert.assertEquals(0, lines.getParsedReaders());
+		// the contents are released
+		Assert.assertNull(resource.takeContent(next));
+	}
+
+	@Test
+	public void testTheDefaultEncodingAlsoReadsTheFiles() throws Exception {
+		Parser<Object> parser = new PrefetchedParser<Object>(lines, resource);
+		Iterator<File> it = resource.iterator();
+		List<?> result = (List<?>) parser.parse(it.next());
+		Assert.assertEquals("class A {}", result.get(0));
+		Assert.assertEquals(1, lines.getParsedFiles());
+		Assert.assertEquals(0, lines.getParsedReaders());
+	}
+
+	@Test
+	public void testTheFilesWithoutContentsAreRead() throws Exception {
+		Parser<Object> parser = new PrefetchedParser<Object>(lines, resource);
+		List<?> result = (List<?>) parser.parse(file, "UTF-8");
+		Assert.assertEquals("class A {}", result.get(0));
+		Assert.assertEquals(1, lines.getParsedFiles());
+	}
+
+	@Test
+	public void testTheCachesReceiveThePrefetchedContents() throws Exception {
+		ParseCache cache = new ParseCache();
+		Parser<Object> parser = new PrefetchedParser<Object>(new CachingParser<Object>(lines, cache), resource);
+		File next = resource.iterator().next();
+		Assert.assertEquals("class A {}", ((List<?>) parser.parse(next, "UTF-8")).get(0));
+		Assert.assertEquals(1, cache.getNumEntries());
+
+		// the cached AST is validated with the contents, which are taken
+		file.setLastModified(file.lastModified() + 10000);
+		next = resource.iterator().next();
+		Assert.assertEquals("class A {}", ((List<?>) parser.parse(next, "UTF-8")).get(0));
+		Assert.assertNull(resource.takeContent(next));
+		Assert.assertEquals(1, lines.getParsedFiles());
+		Assert.assertEquals(0, lines.getParsedReaders());
+	}
+}
@@ -0,0 +1,124 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.walkers;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class VisitorContextTest {
+
+	private VisitorContext createParent() {
+		VisitorContext parent = new VisitorContext();
+		parent.put("a", "parent a");
+		parent.put("b", "parent b");
+		parent.addResultNode("parent node");
+		return parent;
+	}
+
+	private VisitorContext createChild() {
+		return new VisitorContext(null, createParent());
+	}
+
+	@Test
+	public void testChildReadsThroughItsParent() {
+		VisitorContext child = createChild();
+		Assert.assertEquals("parent a", child.get("a"));
+		Assert.assertTrue(child.containsKey("b"));
+		Assert.assertEquals("parent b", child.getOrDefault("b", "default"));
+		Assert.assertEquals("default", child.getOrDefault("c", "default"));
+		Assert.assertEquals(2, child.size());
+		Assert.assertFalse(child.hasResultNodes());
+	}
+
+	@Test
+	public void testChildEntriesShadowTheParentOnes() {
+		VisitorContext child = createChild();
+		Assert.assertEquals("parent a", child.put("a", "child a"));
+		Map<String, Object> entries = new HashMap<String, Object>();
+		entries.put("c", "child c");
+		child.putAll(entries);
+		Assert.assertEquals("child a", child.get("a"));
+		Assert.assertEquals("parent b", child.putIfAbsent("b", "child b"));
+		Assert.assertEquals(3, child.size());
+		Assert.assertEquals(3, child.entrySet().size());
+		Assert.assertEquals("child a", child.getOrDefault("a", null));
+		Assert.assertTrue(child.values().contains("child c"));
+		Assert.assertFalse(child.values().contains("parent a"));
+	}
+
+	@Test
+	public void testRemovedEntriesAreNotInherited() {
+		VisitorContext parent = createParent();
+		VisitorContext child = new VisitorContext(null, parent);
+		Assert.assertEquals("parent a", child.remove("a"));
+		Assert.assertNull(child.get("a"));
+		Assert.assertFalse(child.containsKey("a"));
+		Assert.assertEquals("default", child.getOrDefault("a", "default"));
+		Assert.assertFalse(child.keySet().contains("a"));
+		Assert.assertEquals(1, child.size());
+		Assert.assertFalse(child.remove("b", "other"));
+		Assert.assertTrue(child.remove("b", "parent b"));
+		Assert.assertTrue(child.isEmpty());
+		child.put("a", "child a");
+		Assert.assertEquals("child a", child.get("a"));
+		child.clear();
+		Assert.assertTrue(child.isEmpty());
+		Assert.assertNull(child.get("b"));
+		Assert.assertEquals("parent a", parent.get("a"));
+		Assert.assertEquals("parent b", parent.get("b"));
+	}
+
+	@Test
+	public void testResultNodesKeepTheInsertionOrder() {
+		VisitorContext vc = new VisitorContext();
+		String a = new String("a");
+		String b = new String("b");
+		vc.addResultNode(a);
+		vc.addResultNode(b);
+		vc.addResultNode(a);
+		Assert.assertEquals(Arrays.asList("b", "a"), vc.getResultNodes());
+	}
+
+	@Test
+	public void testResultNodesAreComparedByIdentity() {
+		VisitorContext vc = new VisitorContext();
+		vc.addResultNode(new String("a"));
+		vc.addResultNode(new String("a"));
+		Assert.assertEquals(2, vc.getResultNodes().size());
+		Assert.assertFalse(vc.removeResultNode("a"));
+	}
+
+	@Test
+	public void testResultNodesCopyIsSharedUntilItChanges() {
+		VisitorContext vc = new VisitorContext();
+		vc.addResultNode("a");
+		Collection<Object> copy = vc.getResultNodes();
+		Assert.assertSame(copy, vc.getResultNodes());
+		vc.addResultNode("b");
+		Assert.assertNotSame(copy, vc.getResultNodes());
+		Assert.assertEquals(1, copy.size());
+		try {
+			copy.clear();
+			Assert.fail("the copy must be unmodifiable");
+		} catch (UnsupportedOperationException e) {
+		}
+	}
+}
@@ -4,8 +4,11 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.StringWriter;
 import org.junit.Assert;
 import org.junit.Test;
+import org.walkmod.walkers.AbstractWalker;
+import org.walkmod.walkers.ParseCache;
 import org.walkmod.walkers.VisitorContext;
 
 public class AbstractFileWriterTest {
@@ -66,4 +69,160 @@ public class AbstractFileWriterTest {
 		reader.close();
 		Assert.assertEquals('\r', buf[4]);
 	}
+
+	@Test
+	public void testLineEndingsAreNormalized() throws IOException {
+		StringWriter sw = new StringWriter();
+		writer.write("a\nb\r\nc\rd", sw, '\r');
+		Assert.assertEquals("a\r\nb\r\nc\r\nd", sw.toString());
+		sw = new StringWriter();
+		writer.write("a\r\nb\n", sw, '\n');
+		Assert.assertEquals("a\nb\n", sw.toString());
+		sw = new StringWriter();
+		writer.append("a\r\nb", sw, '\n');
+		Assert.assertEquals("a\nb\n", sw.toString());
+		sw = new StringWriter();
+		writer.append("a\n\n", sw, '\r');
+		Assert.assertEquals("a\r\n\r\n", sw.toString());
+	}
+
+	@Test
+	public void testUnchangedFilesAreNotRewritten() throws Exception {
+		AbstractFileWriter contentWriter = new AbstractFileWriter() {
+
+			@Override
+			public File createOutputDirectory(Object o) {
+				return null;
+			}
+
+			@Override
+			public String getContent(Object n, VisitorContext vc) {
+				return n.toString();
+			}
+		};
+		File file = File.createTempFile("test", "unchanged.txt");
+		FileWriter fw = new FileWriter(file);
+		fw.write("test\n");
+		fw.close();
+		file.setLastModified(1000L);
+		VisitorContext vc = new VisitorContext();
+		vc.put(AbstractWalker.ORIGINAL_FILE_KEY, file);
+		Summary.getInstance().clear();
+		contentWriter.write("test", vc);
+		Assert.assertEquals(1000L, file.lastModified());
+		Assert.assertTrue(Summary.getInstance().getUnchangedFiles().contains(file));
+		Assert.assertTrue(Summary.getInstance().getWrittenFiles().isEmpty());
+		contentWriter.write("test2", vc);
+		Assert.assertTrue(Summary.getInstance().getWrittenFiles().contains(file));
+		Summary.getInstance().clear();
+	}
+
+	private static AbstractFileWriter createContentWriter() {
+		return new AbstractFileWriter() {
+
+			@Override
+			public File createOutputDirectory(Object o) {
+				return null;
+			}
+
+			@Override
+			public String getContent(Object n, VisitorContext vc) {
+				return n.toString();
+			}
+		};
+	}
+
+	private static String read(File file) throws IOException {
+		FileReader reader = new FileReader(file);
+		try {
+			StringWriter sw = new StringWriter();
+			char[] buffer = new char[256];
+			int read = reader.read(buffer);
+			while (read > 0) {
+				sw.write(buffer, 0, read);
+				read = reader.read(buffer);
+			}
+			return sw.toString();
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testFilesThatOnlyDifferInLineEndingsAreRewritten() throws Exception {
+		AbstractFileWriter contentWriter = createContentWriter();
+		File file = File.createTempFile("test", "endings.txt");
+		FileWriter fw = new FileWriter(file);
+		fw.write("a\nb\r\nc\n");
+		fw.close();
+		VisitorContext vc = new VisitorContext();
+		vc.put(AbstractWalker.ORIGINAL_FILE_KEY, file);
+		Summary.getInstance().clear();
+		contentWriter.write("a\nb\nc", vc);
+		Assert.assertTrue(Summary.getInstance().getWrittenFiles().contains(file));
+		Assert.assertEquals("a\nb\nc\n", read(file));
+
+		Summary.getInstance().clear();
+		contentWriter.setPlatform("windows");
+		vc.put("append", Boolean.TRUE);
+		contentWriter.write("a\nb\nc\n", vc);
+		Assert.assertTrue(Summary.getInstance().getWrittenFiles().contains(file));
+		Assert.assertEquals("a\r\nb\r\nc\r\n", read(file));
+
+		Summary.getInstance().clear();
+		contentWriter.write("a\nb\nc\n", vc);
+		Assert.assertTrue(Summary.getInstance().getUnchangedFiles().contains(file));
+		Assert.assertTrue(Summary.getInstance().getWrittenFiles().isEmpty());
+		Summary.getInstance().clear();
+		file.delete();
+	}
+
+	@Test
+	public void testFilesLargerThanTheComparisonBlocks() throws Exception {
+		AbstractFileWriter contentWriter = createContentWriter();
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			sb.append("line ").append(i).append('\n');
+		}
+		String content = sb.toString();
+		File file = File.createTempFile("test", "large.txt");
+		FileWriter fw = new FileWriter(file);
+		fw.write(content);
+		fw.close();
+		VisitorContext vc = new VisitorContext();
+		vc.put(AbstractWalker.ORIGINAL_FILE_KEY, file);
+		Summary.getInstance().clear();
+		contentWriter.write(content, vc);
+		Assert.assertTrue(Summary.getInstance().getUnchangedFiles().contains(file));
+		contentWriter.write(content.substring(0, content.length() - 2) + "X\n", vc);
+		Assert.assertTrue(Summary.getInstance().getWrittenFiles().contains(file));
+		contentWriter.write(content + "tail\n", vc);
+		Assert.assertEquals(content + "tail\n", read(file));
+		Summary.getInstance().clear();
+		file.delete();
+	}
+
+	@Test
+	public void testOnlyRewrittenFilesAreInvalidatedInTheParseCache() throws Exception {
+		AbstractFileWriter contentWriter = createContentWriter();
+		File file = File.createTempFile("test", "cached.txt");
+		FileWriter fw = new FileWriter(file);
+		fw.write("test\n");
+		fw.close();
+		VisitorContext vc = new VisitorContext();
+		vc.put(AbstractWalker.ORIGINAL_FILE_KEY, file);
+		ParseCache cache = ParseCache.getInstance();
+		cache.setEnabled(true);
+		try {
+			cache.put(file.getCanonicalPath(), "lines", file.length(), file.lastModified(), "hash", new byte[] { 1 });
+			contentWriter.write("test", vc);
+			Assert.assertEquals(1, cache.getNumEntries());
+			contentWriter.write("test2", vc);
+			Assert.assertEquals(0, cache.getNumEntries());
+		} finally {
+			cache.setEnabled(false);
+			Summary.getInstance().clear();
+			file.delete();
+		}
+	}
 }
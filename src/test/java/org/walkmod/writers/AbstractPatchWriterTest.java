@@ -0,0 +1,230 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.writers;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.walkmod.patches.NdjsonPatchFormatter;
+import org.walkmod.patches.Patch;
+import org.walkmod.patches.Patches;
+import org.walkmod.walkers.AbstractWalker;
+import org.walkmod.walkers.VisitorContext;
+
+public class AbstractPatchWriterTest {
+
+	private File directory;
+
+	/**
+	 * Writes a patch per element with its name as the diff.
+	 */
+	private static class NamePatchWriter extends AbstractPatchWriter {
+
+		@Override
+		protected List<Patch> getPatches(Object n, VisitorContext vc) {
+			return Arrays.asList(new Patch(n.toString(), 1, 1, 1, 1, getCause(), n.toString(), false));
+		}
+
+		@Override
+		public String getContent(Object n, VisitorContext vc) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Writes the diff between the element name and its upper case.
+	 */
+	private static class UpperCaseDiffWriter extends AbstractPatchWriter {
+
+		@Override
+		protected String getOriginalText(Object n, VisitorContext vc) {
+			return n.toString();
+		}
+
+		@Override
+		protected String getRevisedText(Object n, VisitorContext vc) {
+			return n.toString().toUpperCase();
+		}
+
+		@Override
+		public String getContent(Object n, VisitorContext vc) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("walkmod", "patches");
+		directory.delete();
+		directory.mkdirs();
+	}
+
+	@After
+	public void tearDown() {
+		File[] children = directory.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				child.delete();
+			}
+		}
+		directory.delete();
+		Summary.getInstance().clear();
+	}
+
+	private static VisitorContext context(File file) {
+		VisitorContext vc = new VisitorContext();
+		vc.put(AbstractWalker.ORIGINAL_FILE_KEY, file);
+		return vc;
+	}
+
+	static String read(InputStream is) throws IOException {
+		Reader reader = new InputStreamReader(is, "UTF-8");
+		try {
+			StringWriter sw = new StringWriter();
+			char[] buffer = new char[1024];
+			int read = reader.read(buffer);
+			while (read > 0) {
+				sw.write(buffer, 0, read);
+				read = reader.read(buffer);
+			}
+			return sw.toString();
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testNdjsonPatchesAreStreamed() throws Exception {
+		NamePatchWriter writer = new NamePatchWriter();
+		File patch = new File(directory, "walkmod.patch");
+		writer.setPatchFile(patch.getPath());
+		writer.setPatchFormat("ndjson");
+		File first = new File(directory, "A.java");
+		File second = new File(directory, "B.java");
+		writer.write("A", context(first));
+		writer.write("B", context(second));
+		writer.close();
+
+		NdjsonPatchFormatter formatter = new NdjsonPatchFormatter();
+		String expected = formatter.format(writer.getLocation(first),
+				Arrays.asList(new Patch("A", 1, 1, 1, 1, "walkmod", "A", false)))
+				+ "\n"
+				+ formatter.format(writer.getLocation(second),
+						Arrays.asList(new Patch("B", 1, 1, 1, 1, "walkmod", "B", false))) + "\n";
+		Assert.assertEquals(expected, read(new FileInputStream(patch)));
+		Assert.assertTrue(Summary.getInstance().getWrittenFiles().contains(first));
+		Assert.assertTrue(Summary.getInstance().getWrittenFiles().contains(second));
+	}
+
+	@Test
+	public void testRawDiffsAreGeneratedInThePatchFile() throws Exception {
+		UpperCaseDiffWriter writer = new UpperCaseDiffWriter();
+		File patch = new File(directory, "walkmod.patch");
+		writer.setPatchFile(patch.getPath());
+		writer.setPatchFormat("raw");
+		File first = new File(directory, "A.java");
+		File unchanged = new File(directory, "B.java");
+		File second = new File(directory, "C.java");
+		writer.write("a\nb\nc", context(first));
+		writer.write("B\nC", context(unchanged));
+		writer.write("x", context(second));
+		writer.close();
+
+		String expected = Patches.generatePatch("a\nb\nc", "A\nB\nC", writer.getLocation(first)) + "\n"
+				+ Patches.generatePatch("x", "X", writer.getLocation(second)) + "\n";
+		Assert.assertEquals(expected, read(new FileInputStream(patch)));
+		Assert.assertTrue(Summary.getInstance().getWrittenFiles().contains(first));
+		Assert.assertFalse(Summary.getInstance().getWrittenFiles().contains(unchanged));
+	}
+
+	private void writeChain(String compression, String... names) throws Exception {
+		UpperCaseDiffWriter writer = new UpperCaseDiffWriter();
+		writer.setPatchFile(new File(directory, "walkmod.patch").getPath());
+		writer.setPatchFormat("raw");
+		writer.setPatchCompression(compression);
+		for (String name : names) {
+			writer.write(name, context(new File(directory, name + ".java")));
+		}
+		writer.close();
+	}
+
+	@Test
+	public void testGzipMembersOfTheChainsAreConcatenated() throws Exception {
+		writeChain(AbstractPatchWriter.GZIP_COMPRESSION, "a", "b");
+		writeChain(AbstractPatchWriter.GZIP_COMPRESSION, "c");
+		File patch = new File(directory, "walkmod.patch.gz");
+		Assert.assertTrue(patch.isFile());
+
+		String expected = "";
+		for (String name : new String[] { "a", "b", "c" }) {
+			File file = new File(directory, name + ".java");
+			expected += Patches.generatePatch(name, name.toUpperCase(), new UpperCaseDiffWriter().getLocation(file))
+					+ "\n";
+		}
+		Assert.assertEquals(expected, read(new GZIPInputStream(new FileInputStream(patch))));
+	}
+
+	@Test
+	public void testZipEntriesOfTheChainsAreKept() throws Exception {
+		writeChain(AbstractPatchWriter.ZIP_COMPRESSION, "a", "b");
+		writeChain(AbstractPatchWriter.ZIP_COMPRESSION, "c", "a");
+		File patch = new File(directory, "walkmod.patch.zip");
+
+		Map<String, String> entries = new LinkedHashMap<String, String>();
+		ZipInputStream zis = new ZipInputStream(new FileInputStream(patch));
+		try {
+			ZipEntry entry = zis.getNextEntry();
+			while (entry != null) {
+				StringBuilder sb = new StringBuilder();
+				int c = zis.read();
+				while (c != -1) {
+					sb.append((char) c);
+					c = zis.read();
+				}
+				entries.put(entry.getName(), sb.toString());
+				entry = zis.getNextEntry();
+			}
+		} finally {
+			zis.close();
+		}
+		UpperCaseDiffWriter writer = new UpperCaseDiffWriter();
+		String a = writer.getLocation(new File(directory, "a.java"));
+		String c = writer.getLocation(new File(directory, "c.java"));
+		Assert.assertEquals(Arrays.asList(a + ".patch", writer.getLocation(new File(directory, "b.java")) + ".patch",
+				c + ".patch", a + ".2.patch"), Arrays.asList(entries.keySet().toArray()));
+		Assert.assertEquals(Patches.generatePatch("a", "A", a) + "\n", entries.get(a + ".patch"));
+		Assert.assertEquals(entries.get(a + ".patch"), entries.get(a + ".2.patch"));
+		Assert.assertEquals(Patches.generatePatch("c", "C", c) + "\n", entries.get(c + ".patch"));
+		// no temporary archives are left
+		Assert.assertEquals(1, directory.list().length);
+	}
+}
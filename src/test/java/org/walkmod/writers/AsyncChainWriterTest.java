@@ -0,0 +1,181 @@
+/* 
+  Copyright (C) 2013 Raquel Pau and Albert Coroleu.
+ 
+ Walkmod is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Lesser General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+ 
+ Walkmod is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Lesser General Public License for more details.
+ 
+ You should have received a copy of the GNU Lesser General Public License
+ along with Walkmod.  If not, see <http://www.gnu.org/licenses/>.*/
+package org.walkmod.writers;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.walkmod.ChainWriter;
+import org.walkmod.walkers.AbstractWalker;
+import org.walkmod.walkers.VisitorContext;
+
+public class AsyncChainWriterTest {
+
+	/**
+	 * Records the written sequence numbers per file, and fails with the
+	 * negative ones.
+	 */
+	public static class RecordingWriter implements ChainWriter {
+
+		private final Map<File, List<Integer>> written = new HashMap<File, List<Integer>>();
+
+		private final List<Thread> threads = new LinkedList<Thread>();
+
+		private boolean closed = false;
+
+		@Override
+		public void write(Object n, VisitorContext vc) throws Exception {
+			int number = (Integer) n;
+			if (number < 0) {
+				throw new IllegalStateException("Invalid number " + number);
+			}
+			// lets the other lanes run in between
+			Thread.sleep(number % 3);
+			File file = (File) vc.get(AbstractWalker.ORIGINAL_FILE_KEY);
+			synchronized (this) {
+				List<Integer> numbers = written.get(file);
+				if (numbers == null) {
+					numbers = new LinkedList<Integer>();
+					written.put(file, numbers);
+				}
+				numbers.add(number);
+				if (!threads.contains(Thread.currentThread())) {
+					threads.add(Thread.currentThread());
+				}
+			}
+		}
+
+		public synchronized Map<File, List<Integer>> getWritten() {
+			return written;
+		}
+
+		public synchronized int getThreads() {
+			return threads.size();
+		}
+
+		public boolean isClosed() {
+			return closed;
+		}
+
+		@Override
+		public void flush() throws IOException {
+		}
+
+		@Override
+		public void close() throws IOException {
+			closed = true;
+		}
+
+		@Override
+		public String getPath() {
+			return null;
+		}
+
+		@Override
+		public void setPath(String path) {
+		}
+
+		@Override
+		public void setExcludes(String[] excludes) {
+		}
+
+		@Override
+		public String[] getExcludes() {
+			return null;
+		}
+
+		@Override
+		public void setIncludes(String[] includes) {
+		}
+
+		@Override
+		public String[] getIncludes() {
+			return null;
+		}
+	}
+
+	private static VisitorContext context(File file) {
+		VisitorContext vc = new VisitorContext();
+		vc.put(AbstractWalker.ORIGINAL_FILE_KEY, file);
+		return vc;
+	}
+
+	@Test
+	public void testResultsOfTheSameFileAreWrittenInOrder() throws Exception {
+		RecordingWriter recorder = new RecordingWriter();
+		AsyncChainWriter writer = new AsyncChainWriter(recorder, 4, 2);
+		File[] files = new File[16];
+		for (int i = 0; i < files.length; i++) {
+			files[i] = new File("File" + i + ".java");
+		}
+		for (int number = 0; number < 20; number++) {
+			for (int i = 0; i < files.length; i++) {
+				writer.write(number, context(files[i]));
+			}
+		}
+		writer.close();
+		Assert.assertTrue(recorder.isClosed());
+		Assert.assertTrue(recorder.getThreads() > 1);
+		Map<File, List<Integer>> written = recorder.getWritten();
+		Assert.assertEquals(files.length, written.size());
+		for (int i = 0; i < files.length; i++) {
+			List<Integer> numbers = written.get(files[i]);
+			Assert.assertEquals(20, numbers.size());
+			for (int number = 0; number < 20; number++) {
+				Assert.assertEquals(Integer.valueOf(number), numbers.get(number));
+			}
+		}
+	}
+
+	@Test
+	public void testWriteErrorsReachTheCaller() throws Exception {
+		RecordingWriter recorder = new RecordingWriter();
+		AsyncChainWriter writer = new AsyncChainWriter(recorder, 3, 4);
+		writer.write(1, context(new File("A.java")));
+		writer.write(-1, context(new File("B.java")));
+		writer.write(2, context(new File("C.java")));
+		try {
+			writer.flush();
+			Assert.fail("The write error must be reported");
+		} catch (IOException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+			Assert.assertEquals("Invalid number -1", e.getCause().getMessage());
+		}
+		// the other results are written
+		Assert.assertEquals(2, recorder.getWritten().size());
+
+		writer.write(-2, context(new File("D.java")));
+		try {
+			writer.close();
+			Assert.fail("The write error must be reported");
+		} catch (IOException e) {
+			Assert.assertEquals("Invalid number -2", e.getCause().getMessage());
+		}
+		Assert.assertTrue(recorder.isClosed());
+		try {
+			writer.write(3, context(new File("A.java")));
+			Assert.fail("The writer is closed");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+}